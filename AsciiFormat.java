@@ -0,0 +1,84 @@
+package osm2wkt;
+
+import java.nio.ByteBuffer;
+
+// allocation free formatting of numbers as ascii into byte buffers
+public final class AsciiFormat {
+
+	// maximum number of bytes putDouble and putLong write
+	public final static int MAX_NUMBER_LENGTH = 32;
+
+	private final static long[] POW10 = {
+		1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+		100000000L, 1000000000L, 10000000000L, 100000000000L
+	};
+
+	private AsciiFormat(){
+	}
+
+	public static byte[] bytes(String s){
+		byte[] b = new byte[s.length()];
+		for(int i=0; i<b.length; i++) b[i] = (byte)s.charAt(i);
+		return b;
+	}
+
+	public static void putAscii(ByteBuffer buffer, String s){
+		for(int i=0; i<s.length(); i++) buffer.put((byte)s.charAt(i));
+	}
+
+	public static void putLong(ByteBuffer buffer, long value){
+		if(value == Long.MIN_VALUE){
+			putAscii(buffer, Long.toString(value));
+			return;
+		}
+		if(value < 0){
+			buffer.put((byte)'-');
+			value = -value;
+		}
+
+		int digits = 1;
+		for(long v = value; v >= 10; v /= 10) digits++;
+
+		int end = buffer.position() + digits;
+		for(int i=end-1; i>=buffer.position(); i--){
+			buffer.put(i, (byte)('0' + (value % 10)));
+			value /= 10;
+		}
+		buffer.position(end);
+	}
+
+	// writes the value rounded half up to the given number of decimals,
+	// trailing zeros of the fraction are omitted
+	public static void putDouble(ByteBuffer buffer, double value, int decimals){
+		if(decimals < 0 || decimals >= POW10.length
+				|| Double.isNaN(value) || Double.isInfinite(value)
+				|| Math.abs(value) * POW10[decimals] >= 1.0E18){
+			putAscii(buffer, Double.toString(value));
+			return;
+		}
+
+		boolean negative = value < 0;
+		long pow = POW10[decimals];
+		long scaled = (long)Math.floor(Math.abs(value) * pow + 0.5d);
+		if(negative && scaled != 0) buffer.put((byte)'-');
+
+		putLong(buffer, scaled / pow);
+
+		long fraction = scaled % pow;
+		if(fraction == 0) return;
+
+		int digits = decimals;
+		while(fraction % 10 == 0){
+			fraction /= 10;
+			digits--;
+		}
+
+		buffer.put((byte)'.');
+		int end = buffer.position() + digits;
+		for(int i=end-1; i>=buffer.position(); i--){
+			buffer.put(i, (byte)('0' + (fraction % 10)));
+			fraction /= 10;
+		}
+		buffer.position(end);
+	}
+}
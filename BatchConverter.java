@@ -0,0 +1,171 @@
+package osm2wkt;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// converts many maps in one jvm. the maps of a directory or of a list file
+// (one path per line, # starts a comment) are converted concurrently on a
+// fixed pool of workers, each with its own copy of the options. the log of a
+// map is printed in one piece when it is done, at the end a table with the
+// timings of all maps is printed
+public class BatchConverter {
+
+	private final Osm2Wkt options;
+	private final int threads;
+
+	// result of one map
+	private static class Result {
+		final String file;
+		boolean converted = false;
+		int landmarks = 0;
+		int streets = 0;
+		long millis = 0;
+
+		Result(String file){
+			this.file = file;
+		}
+	}
+
+	// the converters of the maps are copies of options, which can not write
+	// a map state as all maps would write the same file
+	public BatchConverter(Osm2Wkt options, int threads){
+		if(options.stateFile != null)
+			throw new IllegalArgumentException("map states can not be written in batch mode");
+		this.options = options;
+		this.threads = threads;
+	}
+
+	// map files in a directory, sorted by name, or the paths listed in a file.
+	// outputs of earlier runs in a directory, like map.osm.wkt, are skipped
+	public static List<String> listMaps(File input) throws IOException {
+		List<String> maps = new ArrayList<String>();
+
+		if(input.isDirectory()){
+			File[] files = input.listFiles();
+			if(files == null) throw new IOException("can not list directory " + input);
+			Arrays.sort(files);
+			for(File file : files){
+				String name = file.getName().toLowerCase();
+				if(!file.isFile() || !isMap(name)) continue;
+				if(isMap(name.substring(0, name.lastIndexOf('.')))) continue;
+				maps.add(file.getPath());
+			}
+			return maps;
+		}
+
+		BufferedReader reader = new BufferedReader(new FileReader(input));
+		try{
+			String line;
+			while((line = reader.readLine()) != null){
+				int comment = line.indexOf('#');
+				if(comment >= 0) line = line.substring(0, comment);
+				line = line.trim();
+				if(line.length() > 0) maps.add(line);
+			}
+		}finally{
+			reader.close();
+		}
+		return maps;
+	}
+
+	private static boolean isMap(String name){
+		return name.endsWith("." + Osm2Wkt.FILE_EXT_OSM) || name.endsWith("." + Osm2Wkt.FILE_EXT_WKT)
+			|| name.endsWith("." + WkbFormat.FILE_EXT) || name.endsWith("." + RoadMapFile.FILE_EXT);
+	}
+
+	// converts all maps, the outputs are written next to the maps or into
+	// destdir if given. true if all maps were converted
+	public boolean run(List<String> maps, String destdir, int translateX, int translateY,
+			List<String> formats) throws InterruptedException {
+		System.out.println("converting " + maps.size() + " maps on " + threads + " workers ...");
+		long start = System.nanoTime();
+
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		List<Future<Result>> results = new ArrayList<Future<Result>>();
+		try{
+			for(String map : maps){
+				String destfile = (destdir == null ? map : new File(destdir, new File(map).getName()).getPath())
+					+ "." + Osm2Wkt.FILE_EXT_WKT;
+				results.add(workers.submit(() -> convert(map, destfile, translateX, translateY, formats)));
+			}
+
+			boolean all = true;
+			List<Result> done = new ArrayList<Result>();
+			for(Future<Result> result : results){
+				try{
+					done.add(result.get());
+				}catch(java.util.concurrent.ExecutionException e){
+					// convert catches everything, only errors get here
+					throw new IllegalStateException(e.getCause());
+				}
+				all &= done.get(done.size() - 1).converted;
+			}
+
+			printSummary(done, (System.nanoTime() - start) / 1000000);
+			return all;
+		}finally{
+			workers.shutdownNow();
+		}
+	}
+
+	// runs on a worker thread
+	private Result convert(String map, String destfile, int translateX, int translateY, List<String> formats){
+		Result result = new Result(map);
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		PrintStream log = new PrintStream(buffer, true);
+		long start = System.nanoTime();
+
+		try{
+			Osm2Wkt converter = options.copyOptions();
+			converter.log = log;
+			if(!isMap(map.toLowerCase())){
+				log.println("unknown file extension in " + map);
+			}else if(converter.convert(map, destfile, false, translateX, translateY, null, formats)){
+				log.println("written to new file " + converter.outputName(destfile));
+				result.converted = true;
+				result.landmarks = converter.landmarkCount();
+				result.streets = converter.streetCount();
+			}
+		}catch(RuntimeException | OutOfMemoryError e){
+			log.println("converting " + map + " failed: " + e);
+		}
+		result.millis = (System.nanoTime() - start) / 1000000;
+
+		log.flush();
+		synchronized(System.out){
+			System.out.println("==> " + map + (result.converted ? "" : " FAILED"));
+			System.out.print(buffer.toString());
+		}
+		return result;
+	}
+
+	private static void printSummary(List<Result> results, long millis){
+		int width = 3;
+		for(Result result : results) width = Math.max(width, result.file.length());
+
+		String format = "%-" + width + "s  %-6s  %10s  %10s  %10s%n";
+		System.out.println();
+		System.out.printf(format, "map", "status", "landmarks", "streets", "seconds");
+		int converted = 0;
+		long sum = 0;
+		for(Result result : results){
+			System.out.printf(format, result.file, result.converted ? "ok" : "failed",
+					result.converted ? result.landmarks : "-", result.converted ? result.streets : "-",
+					String.format("%.2f", result.millis / 1000.0));
+			if(result.converted) converted++;
+			sum += result.millis;
+		}
+		System.out.printf("%d of %d maps converted in %.2f seconds, %.2f seconds of conversions%n",
+				converted, results.size(), millis / 1000.0, sum / 1000.0);
+	}
+}
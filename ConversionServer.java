@@ -0,0 +1,314 @@
+package osm2wkt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// local http conversion service, so repeated conversions skip the jvm start
+// and run warm. a map is posted to /convert and the cleaned map is returned:
+//
+//   curl --data-binary @map.osm "http://127.0.0.1:PORT/convert?repair=y&tiles=1000"
+//
+// query parameters are input (osm, wkt, wkb or o2wb, default osm), output (wkt
+// or wkb, default wkt), repair (y or n), tiles, simplify, projection, tx and
+// ty, defaults are the options given on the command line.
+//
+// requests are handled on virtual threads where the jvm has them and wait for
+// the conversion on a pool of one thread per cpu. finished outputs are kept in
+// an lru cache keyed by the hash of the input and the options, concurrent
+// requests for the same output share one conversion
+public class ConversionServer {
+
+	public final static String CONTEXT = "/convert";
+
+	private final static long DEFAULT_CACHE_BYTES = 256L * 1024 * 1024;
+	private final static int BUFFER_SIZE = 1 << 16;
+
+	private final int port;
+	private final Osm2Wkt options;
+	private final int translateX;
+	private final int translateY;
+	private final long maxCacheBytes;
+
+	private HttpServer server;
+	private ExecutorService requests;
+	private ExecutorService workers;
+
+	// finished outputs in access order, the eldest is evicted first
+	private final LinkedHashMap<String,byte[]> results = new LinkedHashMap<String,byte[]>(16, 0.75f, true);
+	private long cachedBytes = 0;
+	private final ConcurrentHashMap<String,Future<byte[]>> running = new ConcurrentHashMap<String,Future<byte[]>>();
+
+	// the converters of the requests are copies of options
+	public ConversionServer(int port, Osm2Wkt options){
+		this(port, options, 0, 0, DEFAULT_CACHE_BYTES);
+	}
+
+	// translateX and translateY are the defaults of the tx and ty parameters
+	public ConversionServer(int port, Osm2Wkt options, int translateX, int translateY){
+		this(port, options, translateX, translateY, DEFAULT_CACHE_BYTES);
+	}
+
+	public ConversionServer(int port, Osm2Wkt options, long maxCacheBytes){
+		this(port, options, 0, 0, maxCacheBytes);
+	}
+
+	public ConversionServer(int port, Osm2Wkt options, int translateX, int translateY, long maxCacheBytes){
+		this.port = port;
+		this.options = options;
+		this.translateX = translateX;
+		this.translateY = translateY;
+		this.maxCacheBytes = maxCacheBytes;
+	}
+
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		requests = requestExecutor();
+		workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		server.setExecutor(requests);
+		server.createContext(CONTEXT, exchange -> {
+			try{
+				handle(exchange);
+			}finally{
+				exchange.close();
+			}
+		});
+		server.start();
+
+		System.out.println("conversion server listening on http://"
+				+ server.getAddress().getAddress().getHostAddress() + ":"
+				+ server.getAddress().getPort() + CONTEXT);
+	}
+
+	public void stop(){
+		server.stop(0);
+		requests.shutdown();
+		workers.shutdown();
+	}
+
+	public int port(){
+		return server.getAddress().getPort();
+	}
+
+	// one virtual thread per request if available, java 21 and later
+	private static ExecutorService requestExecutor(){
+		try{
+			ExecutorService executor = (ExecutorService)Executors.class
+				.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			System.out.println("handling requests on virtual threads");
+			return executor;
+		}catch(ReflectiveOperationException e){
+			System.out.println("virtual threads not available, handling requests on a thread pool");
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		if(!exchange.getRequestMethod().equals("POST")){
+			respond(exchange, 405, "only POST is supported\n");
+			return;
+		}
+
+		Request request;
+		try{
+			request = new Request(exchange.getRequestURI().getRawQuery());
+		}catch(IllegalArgumentException e){
+			respond(exchange, 400, e.getMessage() + "\n");
+			return;
+		}
+
+		File input = File.createTempFile("osm2wkt-request", "." + request.input);
+		try{
+			InputStream body = exchange.getRequestBody();
+			Files.copy(body, input.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			body.close();
+
+			String key = StageCache.hash(StageCache.hashFile(input) + "|" + request.key());
+			byte[] result = cached(key);
+			String cache = "hit";
+
+			if(result == null){
+				cache = "miss";
+				FutureTask<byte[]> task = new FutureTask<byte[]>(() -> convert(request, input));
+				Future<byte[]> conversion = running.putIfAbsent(key, task);
+				if(conversion == null){
+					conversion = task;
+					workers.execute(task);
+				}else{
+					cache = "shared";
+				}
+
+				try{
+					result = conversion.get();
+					if(conversion == task) cache(key, result);
+				}catch(ExecutionException e){
+					Throwable cause = e.getCause();
+					respond(exchange, 422, "conversion failed: "
+							+ (cause.getLocalizedMessage() != null ? cause.getLocalizedMessage() : cause.toString()) + "\n");
+					return;
+				}catch(InterruptedException e){
+					respond(exchange, 503, "conversion interrupted\n");
+					return;
+				}finally{
+					if(conversion == task) running.remove(key, task);
+				}
+			}
+
+			exchange.getResponseHeaders().set("Content-Type",
+					request.output.equals(WkbFormat.FILE_EXT) ? "application/octet-stream" : "text/plain");
+			exchange.getResponseHeaders().set("X-Osm2wkt-Cache", cache);
+			exchange.sendResponseHeaders(200, result.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(result);
+			out.close();
+		}finally{
+			input.delete();
+		}
+	}
+
+	// runs on a worker thread
+	private byte[] convert(Request request, File input) throws IOException {
+		File output = File.createTempFile("osm2wkt-result", "." + request.output);
+		try{
+			Osm2Wkt converter = options.copyOptions();
+			converter.compress = false;
+			converter.writeBinary = false;
+			converter.stateFile = null;
+			converter.repairCrossings = request.repair;
+			converter.tileSize = request.tiles;
+			converter.simplifyTolerance = request.simplify;
+			converter.projection = Projection.forName(request.projection);
+
+			if(!converter.convert(input.getPath(), output.getPath(), false, request.translateX,
+					request.translateY, null, new ArrayList<String>()))
+				throw new IOException("the map could not be converted, see the server log");
+			return Files.readAllBytes(output.toPath());
+		}finally{
+			output.delete();
+		}
+	}
+
+	private synchronized byte[] cached(String key){
+		return results.get(key);
+	}
+
+	private synchronized void cache(String key, byte[] result){
+		if(result.length > maxCacheBytes) return;
+		if(results.put(key, result) == null) cachedBytes += result.length;
+
+		Iterator<byte[]> eldest = results.values().iterator();
+		while(cachedBytes > maxCacheBytes){
+			cachedBytes -= eldest.next().length;
+			eldest.remove();
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] bytes = message.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "text/plain");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	// options of one conversion, from the query string
+	private class Request {
+		String input = "osm";
+		String output = "wkt";
+		boolean repair = options.repairCrossings;
+		double tiles = options.tileSize;
+		double simplify = options.simplifyTolerance;
+		String projection = options.projection.name();
+		int translateX = ConversionServer.this.translateX;
+		int translateY = ConversionServer.this.translateY;
+
+		Request(String query){
+			Map<String,String> parameters = new HashMap<String,String>();
+			if(query != null){
+				for(String pair : query.split("&")){
+					if(pair.isEmpty()) continue;
+					int eq = pair.indexOf('=');
+					try{
+						parameters.put(URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8"),
+								eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+					}catch(java.io.UnsupportedEncodingException e){
+						throw new IllegalStateException(e);
+					}
+				}
+			}
+
+			for(Map.Entry<String,String> p : parameters.entrySet()){
+				String value = p.getValue().toLowerCase();
+				try{
+					switch(p.getKey()){
+					case "input":
+						if(!value.equals("osm") && !value.equals("wkt") && !value.equals(WkbFormat.FILE_EXT)
+								&& !value.equals(RoadMapFile.FILE_EXT))
+							throw new IllegalArgumentException("unknown input " + value);
+						input = value;
+						break;
+					case "output":
+						if(!value.equals("wkt") && !value.equals(WkbFormat.FILE_EXT))
+							throw new IllegalArgumentException("unknown output " + value);
+						output = value;
+						break;
+					case "repair":
+						if(!value.equals("y") && !value.equals("n"))
+							throw new IllegalArgumentException("repair has to be y or n");
+						repair = value.equals("y");
+						break;
+					case "tiles":
+						tiles = Double.parseDouble(value);
+						break;
+					case "simplify":
+						simplify = Double.parseDouble(value);
+						break;
+					case "projection":
+						Projection.forName(value);
+						projection = value;
+						break;
+					case "tx":
+						translateX = Integer.parseInt(value);
+						break;
+					case "ty":
+						translateY = Integer.parseInt(value);
+						break;
+					default:
+						throw new IllegalArgumentException("unknown parameter " + p.getKey());
+					}
+				}catch(NumberFormatException e){
+					throw new IllegalArgumentException("invalid number for " + p.getKey() + ": " + value);
+				}
+			}
+		}
+
+		// everything that changes the output
+		String key(){
+			return "input=" + input + ";output=" + output + ";repair=" + repair + ";tiles=" + tiles
+				+ ";simplify=" + simplify + ";projection=" + projection
+				+ ";translate=" + translateX + "," + translateY + ";epsilon=" + options.epsilon
+				+ ";precision=" + Osm2Wkt.precisonFloating;
+		}
+	}
+}
@@ -0,0 +1,530 @@
+package osm2wkt;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.jgrapht.ext.IntegerEdgeNameProvider;
+import org.jgrapht.ext.IntegerNameProvider;
+
+import osm2wkt.exports.DOTExporter;
+import osm2wkt.exports.GmlExporter;
+import osm2wkt.exports.NAETOExporter;
+import osm2wkt.exports.StreamingGraphMLExporter;
+import osm2wkt.exports.VertexPositionProvider;
+
+// writes a graph in several formats at once. the caller walks the graph once
+// and adds all vertices, then all edges. they are collected into batches of
+// primitive arrays and every batch is handed to one writer thread per format
+// through a bounded queue, so the formats are written concurrently and a slow
+// format only holds back the traversal when its queue is full.
+//
+// vertices and edges are numbered from 1 in the order they are added, in the
+// matrix files row i is vertex i+1. dot, graphml and gml carry the vertex
+// positions and the edge weights, so viewers can skip the layout.
+public class ExportEngine {
+
+	public final static String DOT 		= "dot";
+	public final static String GRAPHML 	= "graphml";
+	public final static String GML 		= "gml";
+	public final static String MATRIX 	= "matrix";
+	public final static String NAETO 	= "naeto";
+
+	public final static List<String> FORMATS = Arrays.asList(DOT, GRAPHML, GML, MATRIX, NAETO);
+
+	private final static String[] MATRIX_NAMES = {
+		"SNA_adjacency", "SNA_weighted", "SNA_laplacian", "SNA_normalized_laplacian"
+	};
+
+	private final static int BATCH_SIZE = 4096;
+	private final static int QUEUE_LENGTH = 16;
+	private final static int BUFFER_SIZE = 1 << 16;
+
+	// vertices or edges, never changed after being queued
+	private final static class Batch {
+		final int first;	// index of the first vertex or edge
+		int size;
+		final double[] x, y;
+		final int[] source, target;
+		final double[] weight;
+
+		Batch(int first, boolean edges){
+			this.first = first;
+			this.x = edges ? null : new double[BATCH_SIZE];
+			this.y = edges ? null : new double[BATCH_SIZE];
+			this.source = edges ? new int[BATCH_SIZE] : null;
+			this.target = edges ? new int[BATCH_SIZE] : null;
+			this.weight = edges ? new double[BATCH_SIZE] : null;
+		}
+
+		boolean edges(){
+			return source != null;
+		}
+	}
+
+	private final static Batch END = new Batch(0, true);
+
+	private final String destfile;
+	private final boolean compress;
+	private final int decimals;
+	private final PrintStream log;
+
+	private final ArrayList<Sink> sinks = new ArrayList<Sink>();
+	private Batch vertices;
+	private Batch edges;
+	private int vertexCount = 0;
+	private int edgeCount = 0;
+
+	// files are named destfile.FORMAT..., decimals are used for coordinates and
+	// weights where the format allows, negative values write them exactly
+	public ExportEngine(String destfile, boolean compress, int decimals){
+		this(destfile, compress, decimals, System.out);
+	}
+
+	// the written files and errors are reported to log
+	public ExportEngine(String destfile, boolean compress, int decimals, PrintStream log){
+		this.destfile = destfile;
+		this.compress = compress;
+		this.decimals = decimals;
+		this.log = log;
+	}
+
+	// starts one writer thread per format
+	public void start(List<String> formats){
+		for(String format : formats){
+			if(format.equals(DOT))			sinks.add(new DotSink());
+			else if(format.equals(GRAPHML))	sinks.add(new GraphMLSink());
+			else if(format.equals(GML))		sinks.add(new GmlSink());
+			else if(format.equals(MATRIX))	sinks.add(new MatrixSink());
+			else if(format.equals(NAETO))	sinks.add(new NaetoSink());
+			else throw new IllegalArgumentException("unknown export format " + format);
+		}
+		for(Sink sink : sinks) sink.start();
+		vertices = new Batch(0, false);
+	}
+
+	public void addVertex(double x, double y) throws InterruptedException {
+		if(edges != null) throw new IllegalStateException("vertices have to be added before the edges");
+		if(vertices.size == BATCH_SIZE){
+			publish(vertices);
+			vertices = new Batch(vertexCount, false);
+		}
+		vertices.x[vertices.size] = x;
+		vertices.y[vertices.size++] = y;
+		vertexCount++;
+	}
+
+	// source and target are the indices of vertices already added
+	public void addEdge(int source, int target, double weight) throws InterruptedException {
+		if(edges == null){
+			publish(vertices);
+			edges = new Batch(0, true);
+		}else if(edges.size == BATCH_SIZE){
+			publish(edges);
+			edges = new Batch(edgeCount, true);
+		}
+		edges.source[edges.size] = source;
+		edges.target[edges.size] = target;
+		edges.weight[edges.size++] = weight;
+		edgeCount++;
+	}
+
+	// hands out the last batches, waits for all writers and reports the
+	// written files. returns false if any format failed
+	public boolean finish() throws InterruptedException {
+		if(edges == null) publish(vertices);
+		else publish(edges);
+		publish(END);
+
+		boolean ok = true;
+		for(Sink sink : sinks){
+			sink.join();
+			if(sink.error != null){
+				log.println("exporting " + sink.format + " failed: " + sink.error.getLocalizedMessage());
+				sink.error.printStackTrace(log);
+				ok = false;
+			}else{
+				log.println("graph exported in " + sink.format + " format to " + sink.file);
+			}
+		}
+		return ok;
+	}
+
+	// stops the writers if the traversal failed before finish, the files
+	// that are not complete are deleted
+	public void abort(){
+		for(Sink sink : sinks) sink.interrupt();
+		for(Sink sink : sinks){
+			try{
+				sink.join();
+			}catch(InterruptedException e){
+				// the interrupted writers end on their own
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private void publish(Batch batch) throws InterruptedException {
+		if(batch != END && batch.size == 0) return;
+		for(Sink sink : sinks) sink.queue.put(batch);
+	}
+
+	private String outputName(String file){
+		return compress ? file + ".gz" : file;
+	}
+
+	// writer for the text formats, gzip compressed if requested
+	private Writer openWriter(String file) throws IOException {
+		OutputStream stream = new FileOutputStream(file);
+		if(compress) stream = new ParallelGzipOutputStream(stream);
+		return new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"), BUFFER_SIZE);
+	}
+
+	// channel for the formats written into byte buffers, gzip compressed if requested
+	private WritableByteChannel openChannel(String file) throws IOException {
+		if(compress) return Channels.newChannel(new ParallelGzipOutputStream(new FileOutputStream(file)));
+		return FileChannel.open(new File(file).toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	//****************************************************************************
+	// writers
+
+	private abstract class Sink extends Thread {
+		final String format;
+		final String file;
+		final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(QUEUE_LENGTH);
+		volatile Exception error = null;
+
+		// positions of the vertices of the batch being written
+		Batch current;
+		final VertexPositionProvider<Integer> positions = new VertexPositionProvider<Integer>(){
+			public double getX(Integer vertex){
+				return current.x[vertex - current.first];
+			}
+			public double getY(Integer vertex){
+				return current.y[vertex - current.first];
+			}
+		};
+
+		Sink(String format, String file){
+			super("export-" + format);
+			this.format = format;
+			this.file = file;
+			setDaemon(true);
+		}
+
+		public void run(){
+			boolean open = false;
+			boolean done = false;
+			try{
+				Batch batch;
+				while((batch = queue.take()) != END){
+					if(error != null) continue; // keep draining so the traversal never blocks
+					try{
+						if(!open){
+							open();
+							open = true;
+						}
+						if(batch.edges()) edges(batch);
+						else vertices(batch);
+					}catch(Exception e){
+						error = e;
+					}
+				}
+				if(error == null){
+					if(!open) open();
+					open = true;
+					close();
+					done = true;
+				}
+			}catch(Exception e){
+				if(error == null) error = e;
+			}finally{
+				if(open && !done){
+					abort();
+					delete();
+				}
+			}
+		}
+
+		abstract void open() throws IOException;
+		abstract void vertices(Batch batch) throws IOException;
+		abstract void edges(Batch batch) throws IOException;
+		abstract void close() throws IOException;
+
+		// release the output after a failure
+		abstract void abort();
+
+		// remove the incomplete output after a failure
+		void delete(){
+			new File(file).delete();
+		}
+	}
+
+	private abstract class TextSink extends Sink {
+		Writer writer;
+
+		TextSink(String format, String file){
+			super(format, outputName(file));
+		}
+
+		void open() throws IOException {
+			writer = openWriter(file);
+		}
+
+		void abort(){
+			try{
+				writer.close();
+			}catch(IOException e){
+				// already failed
+			}
+		}
+	}
+
+	private class DotSink extends TextSink {
+		final DOTExporter<Integer, Integer> exporter = new DOTExporter<Integer, Integer>(
+				new IntegerNameProvider<Integer>(), null, null, positions);
+
+		DotSink(){
+			super(DOT, destfile + "." + "SNA_DOT.dat");
+		}
+
+		void open() throws IOException {
+			super.open();
+			exporter.startDocument(writer, false);
+		}
+
+		void vertices(Batch batch){
+			current = batch;
+			for(int i=0; i<batch.size; i++){
+				int vertex = batch.first + i;
+				exporter.writeNode(Integer.toString(vertex + 1), null, positions.getX(vertex), positions.getY(vertex));
+			}
+		}
+
+		void edges(Batch batch){
+			for(int i=0; i<batch.size; i++)
+				exporter.writeEdge(Integer.toString(batch.source[i] + 1),
+						Integer.toString(batch.target[i] + 1), null, batch.weight[i]);
+		}
+
+		void close() throws IOException {
+			// the print writer of the exporter swallows write errors
+			if(exporter.endDocument()) throw new IOException("writing " + file + " failed");
+			writer.close();
+		}
+	}
+
+	private class NaetoSink extends TextSink {
+		final NAETOExporter<Integer, Integer> exporter = new NAETOExporter<Integer, Integer>();
+
+		NaetoSink(){
+			super(NAETO, destfile + "." + "SNA_NAETO.dat");
+		}
+
+		void open() throws IOException {
+			super.open();
+			exporter.startDocument(writer, false);
+		}
+
+		void vertices(Batch batch){
+			for(int i=0; i<batch.size; i++)
+				exporter.writeNode(Integer.toString(batch.first + i + 1), null);
+		}
+
+		void edges(Batch batch){
+			for(int i=0; i<batch.size; i++)
+				exporter.writeEdge(Integer.toString(batch.source[i] + 1),
+						Integer.toString(batch.target[i] + 1), null, batch.weight[i]);
+		}
+
+		void close() throws IOException {
+			// the print writer of the exporter swallows write errors
+			if(exporter.endDocument()) throw new IOException("writing " + file + " failed");
+			writer.close();
+		}
+	}
+
+	private class GmlSink extends TextSink {
+		final GmlExporter<Integer, Integer> exporter = new GmlExporter<Integer, Integer>(
+				new IntegerNameProvider<Integer>(), null, new IntegerEdgeNameProvider<Integer>(), null, positions);
+
+		GmlSink(){
+			super(GML, destfile + "." + "SNA_GML.dat");
+			exporter.setPrintEdgeWeights(true);
+		}
+
+		void open() throws IOException {
+			super.open();
+			exporter.startDocument(writer, false);
+		}
+
+		void vertices(Batch batch){
+			current = batch;
+			for(int i=0; i<batch.size; i++){
+				int vertex = batch.first + i;
+				exporter.writeNode(Integer.toString(vertex + 1), null, positions.getX(vertex), positions.getY(vertex));
+			}
+		}
+
+		void edges(Batch batch){
+			for(int i=0; i<batch.size; i++)
+				exporter.writeEdge(Integer.toString(batch.first + i + 1), Integer.toString(batch.source[i] + 1),
+						Integer.toString(batch.target[i] + 1), null, batch.weight[i]);
+		}
+
+		void close() throws IOException {
+			// the print writer of the exporter swallows write errors
+			if(exporter.endDocument()) throw new IOException("writing " + file + " failed");
+			writer.close();
+		}
+	}
+
+	private class GraphMLSink extends Sink {
+		WritableByteChannel channel;
+		StreamingGraphMLExporter<Integer, Integer> exporter;
+
+		GraphMLSink(){
+			super(GRAPHML, outputName(destfile + "." + "SNA_GraphML.dat"));
+		}
+
+		void open() throws IOException {
+			channel = openChannel(file);
+			exporter = new StreamingGraphMLExporter<Integer, Integer>(
+					new IntegerNameProvider<Integer>(), null,
+					new IntegerEdgeNameProvider<Integer>(), null,
+					positions);
+			exporter.setDecimals(decimals);
+			exporter.startDocument(channel, false);
+		}
+
+		void vertices(Batch batch) throws IOException {
+			current = batch;
+			for(int i=0; i<batch.size; i++){
+				int vertex = batch.first + i;
+				exporter.writeNode(Integer.toString(vertex + 1), null, positions.getX(vertex), positions.getY(vertex));
+			}
+		}
+
+		void edges(Batch batch) throws IOException {
+			for(int i=0; i<batch.size; i++)
+				exporter.writeEdge(Integer.toString(batch.first + i + 1), Integer.toString(batch.source[i] + 1),
+						Integer.toString(batch.target[i] + 1), null, batch.weight[i]);
+		}
+
+		void close() throws IOException {
+			exporter.endDocument();
+			channel.close();
+		}
+
+		void abort(){
+			try{
+				channel.close();
+			}catch(IOException e){
+				// already failed
+			}
+		}
+	}
+
+	// collects the edges and writes the matrices once the graph is complete
+	private class MatrixSink extends Sink {
+		int rows = 0;
+		int count = 0;
+		int[] sources = new int[BATCH_SIZE];
+		int[] targets = new int[BATCH_SIZE];
+		double[] weights = new double[BATCH_SIZE];
+
+		MatrixSink(){
+			super(MATRIX, destfile + ".SNA_*");
+		}
+
+		void open(){
+		}
+
+		void vertices(Batch batch){
+			rows = batch.first + batch.size;
+		}
+
+		void edges(Batch batch){
+			if(count + batch.size > sources.length){
+				int length = Math.max(2 * sources.length, count + batch.size);
+				sources = Arrays.copyOf(sources, length);
+				targets = Arrays.copyOf(targets, length);
+				weights = Arrays.copyOf(weights, length);
+			}
+			System.arraycopy(batch.source, 0, sources, count, batch.size);
+			System.arraycopy(batch.target, 0, targets, count, batch.size);
+			System.arraycopy(batch.weight, 0, weights, count, batch.size);
+			count += batch.size;
+		}
+
+		void close() throws IOException {
+			// symmetric adjacency, every edge is listed in the rows of both ends
+			int[] offsets = new int[rows + 1];
+			for(int e=0; e<count; e++){
+				offsets[sources[e] + 1]++;
+				offsets[targets[e] + 1]++;
+			}
+			for(int i=0; i<rows; i++) offsets[i+1] += offsets[i];
+
+			int[] fill = new int[rows];
+			int[] adjacency = new int[offsets[rows]];
+			double[] adjacencyWeights = new double[offsets[rows]];
+			for(int e=0; e<count; e++){
+				int a = sources[e];
+				int b = targets[e];
+				adjacency[offsets[a] + fill[a]] = b;
+				adjacencyWeights[offsets[a] + fill[a]++] = weights[e];
+				adjacency[offsets[b] + fill[b]] = a;
+				adjacencyWeights[offsets[b] + fill[b]++] = weights[e];
+			}
+			sources = targets = null;
+			weights = null;
+
+			SparseMatrixWriter matrices = new SparseMatrixWriter(rows, offsets, adjacency, adjacencyWeights, decimals);
+			for(int m=0; m<MATRIX_NAMES.length; m++){
+				WritableByteChannel channel = openChannel(outputName(destfile + "." + MATRIX_NAMES[m]
+						+ "." + SparseMatrixWriter.FILE_EXT_MTX));
+				try{
+					matrices.writeMatrixMarket(m, channel);
+				}finally{
+					channel.close();
+				}
+			}
+
+			WritableByteChannel channel = openChannel(outputName(destfile + "."
+					+ MATRIX_NAMES[SparseMatrixWriter.WEIGHTED_ADJACENCY] + "." + SparseMatrixWriter.FILE_EXT_CSR));
+			try{
+				matrices.writeCsr(channel);
+			}finally{
+				channel.close();
+			}
+		}
+
+		void abort(){
+		}
+
+		void delete(){
+			for(String name : MATRIX_NAMES)
+				new File(outputName(destfile + "." + name + "." + SparseMatrixWriter.FILE_EXT_MTX)).delete();
+			new File(outputName(destfile + "." + MATRIX_NAMES[SparseMatrixWriter.WEIGHTED_ADJACENCY]
+					+ "." + SparseMatrixWriter.FILE_EXT_CSR)).delete();
+		}
+	}
+}
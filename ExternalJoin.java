@@ -0,0 +1,160 @@
+package osm2wkt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+// resolves the landmarks of the osm ways without a random-access node store.
+// while the file is parsed, (node id, order, lat, lon) and
+// (node ref, way order, position, way id) records are spilled to sorted runs.
+// both are merge-joined on the node id, the resolved references are sorted
+// back into way order and the complete street geometries are streamed to a
+// handler. memory use only depends on the longest way
+public class ExternalJoin {
+
+	public final static String NAME = "external";
+
+	public interface Handler {
+		// refs, latitudes and longitudes of the resolved street landmarks in way
+		// order, the arrays are reused
+		void street(long id, long[] refs, double[] latitudes, double[] longitudes, int count)
+			throws IOException;
+	}
+
+	private final PrintStream log;
+
+	// latitude and longitude bounds of all nodes
+	private final double[] bounds = {90, -90, 180, -180};
+	private long nodeCount = 0;
+	private long missing = 0;
+
+	public ExternalJoin(){
+		this(System.out);
+	}
+
+	public ExternalJoin(PrintStream log){
+		this.log = log;
+	}
+
+	public double[] bounds(){
+		return bounds;
+	}
+
+	public long nodeCount(){
+		return nodeCount;
+	}
+
+	// references to nodes that are not in the file
+	public long missing(){
+		return missing;
+	}
+
+	public void join(File file, Handler handler) throws IOException {
+		final ExternalSorter nodes = new ExternalSorter(4, 2);
+		final ExternalSorter refs = new ExternalSorter(4, 1);
+		ExternalSorter resolved = new ExternalSorter(6, 2);
+
+		try{
+			// spill nodes and way references while parsing
+			OsmReader.read(file, new OsmReader.Handler(){
+				private final long[] record = new long[4];
+				private long ways = 0;
+
+				public void node(long id, double latitude, double longitude) throws IOException {
+					record[0] = id;
+					record[1] = nodeCount++;
+					record[2] = Double.doubleToRawLongBits(latitude);
+					record[3] = Double.doubleToRawLongBits(longitude);
+					nodes.add(record);
+
+					if(latitude < bounds[0])  bounds[0] = latitude;
+					if(latitude > bounds[1])  bounds[1] = latitude;
+					if(longitude < bounds[2]) bounds[2] = longitude;
+					if(longitude > bounds[3]) bounds[3] = longitude;
+				}
+
+				public void way(long id, long[] wayRefs, int count) throws IOException {
+					if(count == 0){
+						log.println("found no landmark childs for street " + id);
+						return;
+					}
+					for(int i=0; i<count; i++){
+						record[0] = wayRefs[i];
+						record[1] = ways;
+						record[2] = i;
+						record[3] = id;
+						refs.add(record);
+					}
+					ways++;
+				}
+			}, log);
+
+			// merge-join on the node id, the last position of a repeated node wins
+			ExternalSorter.Records nodeRecords = nodes.sort();
+			ExternalSorter.Records refRecords = refs.sort();
+			long[] node = new long[4];
+			long[] ahead = new long[4];
+			long[] ref = new long[4];
+			long[] record = new long[6];
+			boolean hasNode = nodeRecords.next(node);
+			boolean hasAhead = hasNode && nodeRecords.next(ahead);
+
+			while(refRecords.next(ref)){
+				while(hasNode && (node[0] < ref[0]
+						|| (node[0] == ref[0] && hasAhead && ahead[0] == ref[0]))){
+					long[] t = node; node = ahead; ahead = t;
+					hasNode = hasAhead;
+					hasAhead = hasNode && nodeRecords.next(ahead);
+				}
+				if(!hasNode || node[0] != ref[0]){
+					missing++;
+					continue;
+				}
+
+				record[0] = ref[1];
+				record[1] = ref[2];
+				record[2] = ref[3];
+				record[3] = ref[0];
+				record[4] = node[2];
+				record[5] = node[3];
+				resolved.add(record);
+			}
+			nodes.close();
+			refs.close();
+
+			// stream the streets in way order
+			ExternalSorter.Records streetRecords = resolved.sort();
+			long[] ids = new long[256];
+			double[] latitudes = new double[256];
+			double[] longitudes = new double[256];
+			int count = 0;
+			long way = -1;
+			long wayId = 0;
+
+			while(streetRecords.next(record)){
+				if(record[0] != way && count > 0){
+					handler.street(wayId, ids, latitudes, longitudes, count);
+					count = 0;
+				}
+				way = record[0];
+				wayId = record[2];
+
+				if(count == ids.length){
+					ids = java.util.Arrays.copyOf(ids, count << 1);
+					latitudes = java.util.Arrays.copyOf(latitudes, count << 1);
+					longitudes = java.util.Arrays.copyOf(longitudes, count << 1);
+				}
+				ids[count] = record[3];
+				latitudes[count] = Double.longBitsToDouble(record[4]);
+				longitudes[count] = Double.longBitsToDouble(record[5]);
+				count++;
+			}
+			if(count > 0) handler.street(wayId, ids, latitudes, longitudes, count);
+
+		}finally{
+			nodes.close();
+			refs.close();
+			resolved.close();
+		}
+	}
+}
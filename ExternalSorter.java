@@ -0,0 +1,225 @@
+package osm2wkt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// external merge sort of records of a fixed number of longs. the records are
+// collected in a buffer of constant size, sorted by their first key columns
+// and spilled to run files in the temporary directory. the runs are merged
+// with a bounded fan-in, so memory use does not depend on the record count
+public class ExternalSorter {
+
+	// longs in the record buffer, 16 MB
+	private final static int BUFFER_LONGS = 1 << 21;
+	// runs merged at once, every open run has its own read buffer
+	private final static int FAN_IN = 64;
+	private final static int STREAM_BUFFER_SIZE = 1 << 16;
+
+	// sequential access to sorted records
+	public interface Records {
+		// copies the next record into record, false at the end
+		boolean next(long[] record) throws IOException;
+		void close();
+	}
+
+	private final int width;
+	private final int keys;
+	private final long[] buffer;
+	private int used = 0;
+	private final List<File> runs = new ArrayList<File>();
+	private final List<Records> open = new ArrayList<Records>();
+
+	public ExternalSorter(int width, int keys){
+		if(keys < 1 || keys > width) throw new IllegalArgumentException("invalid key columns " + keys);
+		this.width = width;
+		this.keys = keys;
+		this.buffer = new long[BUFFER_LONGS / width * width];
+	}
+
+	public void add(long[] record) throws IOException {
+		if(used == buffer.length) spill();
+		System.arraycopy(record, 0, buffer, used, width);
+		used += width;
+	}
+
+	// all records in key order, no more records can be added
+	public Records sort() throws IOException {
+		sortBuffer(0, used / width);
+		if(runs.isEmpty()) return new BufferRecords();
+
+		if(used > 0) writeRun(new BufferRecords());
+		used = 0;
+
+		// merge in passes until the last pass fits the fan-in
+		while(runs.size() > FAN_IN){
+			List<File> pass = new ArrayList<File>(runs.subList(0, FAN_IN));
+			runs.subList(0, FAN_IN).clear();
+			Records merged = merge(pass);
+			writeRun(merged);
+			merged.close();
+			for(File run : pass) run.delete();
+		}
+		return merge(runs);
+	}
+
+	// deletes the runs, open records are closed
+	public void close(){
+		for(Records records : open) records.close();
+		open.clear();
+		for(File run : runs) run.delete();
+		runs.clear();
+	}
+
+	private void spill() throws IOException {
+		sortBuffer(0, used / width);
+		writeRun(new BufferRecords());
+		used = 0;
+	}
+
+	private void writeRun(Records records) throws IOException {
+		File run = File.createTempFile("osm2wkt-run", ".bin");
+		run.deleteOnExit();
+		runs.add(run);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(run), STREAM_BUFFER_SIZE));
+		try{
+			long[] record = new long[width];
+			while(records.next(record)){
+				for(int i=0; i<width; i++) out.writeLong(record[i]);
+			}
+		}finally{
+			out.close();
+		}
+	}
+
+	private Records merge(List<File> files) throws IOException {
+		final PriorityQueue<RunRecords> queue = new PriorityQueue<RunRecords>(files.size(),
+				(a, b) -> compare(a.record, 0, b.record, 0));
+		final List<RunRecords> all = new ArrayList<RunRecords>();
+		for(File file : files){
+			RunRecords run = new RunRecords(file);
+			all.add(run);
+			if(run.advance()) queue.add(run);
+		}
+
+		Records merged = new Records(){
+			public boolean next(long[] record) throws IOException {
+				RunRecords run = queue.poll();
+				if(run == null) return false;
+				System.arraycopy(run.record, 0, record, 0, width);
+				if(run.advance()) queue.add(run);
+				return true;
+			}
+
+			public void close(){
+				for(RunRecords run : all) run.close();
+			}
+		};
+		open.add(merged);
+		return merged;
+	}
+
+	private int compare(long[] a, int i, long[] b, int k){
+		for(int c=0; c<keys; c++){
+			if(a[i+c] != b[k+c]) return a[i+c] < b[k+c] ? -1 : 1;
+		}
+		return 0;
+	}
+
+	//****************************************************************************
+	// in-memory sort of the buffered records
+
+	private void sortBuffer(int from, int to){
+		while(to - from > 16){
+			// median of three as pivot, moved to the front
+			int middle = (from + to) >>> 1;
+			if(compare(buffer, middle*width, buffer, from*width) < 0) swap(middle, from);
+			if(compare(buffer, (to-1)*width, buffer, from*width) < 0) swap(to-1, from);
+			if(compare(buffer, (to-1)*width, buffer, middle*width) < 0) swap(to-1, middle);
+			swap(from, middle);
+
+			int low = from + 1, high = to - 1;
+			while(true){
+				while(low <= high && compare(buffer, low*width, buffer, from*width) < 0) low++;
+				while(low <= high && compare(buffer, high*width, buffer, from*width) > 0) high--;
+				if(low >= high) break;
+				swap(low++, high--);
+			}
+			swap(from, high);
+
+			// recurse into the smaller part
+			if(high - from < to - high - 1){
+				sortBuffer(from, high);
+				from = high + 1;
+			}else{
+				sortBuffer(high + 1, to);
+				to = high;
+			}
+		}
+
+		for(int i=from+1; i<to; i++){
+			for(int k=i; k>from && compare(buffer, k*width, buffer, (k-1)*width) < 0; k--) swap(k, k-1);
+		}
+	}
+
+	private void swap(int i, int k){
+		int a = i*width, b = k*width;
+		for(int c=0; c<width; c++){
+			long t = buffer[a+c];
+			buffer[a+c] = buffer[b+c];
+			buffer[b+c] = t;
+		}
+	}
+
+	private class BufferRecords implements Records {
+		private int position = 0;
+
+		public boolean next(long[] record){
+			if(position >= used) return false;
+			System.arraycopy(buffer, position, record, 0, width);
+			position += width;
+			return true;
+		}
+
+		public void close(){
+		}
+	}
+
+	private class RunRecords {
+		final long[] record = new long[width];
+		private final DataInputStream in;
+
+		RunRecords(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), STREAM_BUFFER_SIZE));
+		}
+
+		boolean advance() throws IOException {
+			try{
+				record[0] = in.readLong();
+			}catch(EOFException e){
+				return false;
+			}
+			for(int i=1; i<width; i++) record[i] = in.readLong();
+			return true;
+		}
+
+		void close(){
+			try{
+				in.close();
+			}catch(IOException e){
+				// read only
+			}
+		}
+	}
+}
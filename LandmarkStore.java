@@ -0,0 +1,249 @@
+package osm2wkt;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// geographic positions of the osm nodes by node id, filled while parsing and
+// queried when the ways are resolved. the heap store keeps sorted primitive
+// arrays and looks up ids by binary search. the disk store is a dense array
+// indexed by node id in a sparse temporary file that is memory-mapped in
+// windows, so only the pages of the nodes in use are held in memory
+public abstract class LandmarkStore {
+
+	public final static String AUTO = "auto";
+	public final static String HEAP = "heap";
+	public final static String DISK = "disk";
+
+	// conservative size of a node in osm xml, overestimates the node count
+	private final static long XML_BYTES_PER_NODE = 100;
+	// id, latitude and longitude plus room for growing the arrays
+	private final static long HEAP_BYTES_PER_NODE = 2 * 24;
+
+	// chooses the store for an osm file of the given size. the heap store is
+	// used if the nodes will take at most half of the heap that is left
+	public static LandmarkStore create(String type, long inputBytes) throws IOException {
+		if(type.equals(AUTO)) type = fitsInHeap(inputBytes) ? HEAP : DISK;
+
+		if(type.equals(HEAP)) return new Heap();
+		if(type.equals(DISK)) return new Disk();
+		throw new IllegalArgumentException("unknown landmark store " + type
+				+ ", use " + AUTO + ", " + HEAP + " or " + DISK);
+	}
+
+	public static boolean fitsInHeap(long inputBytes){
+		Runtime runtime = Runtime.getRuntime();
+		long available = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		long needed = inputBytes / XML_BYTES_PER_NODE * HEAP_BYTES_PER_NODE;
+		return needed <= available / 2;
+	}
+
+	public abstract String name();
+
+	public abstract void put(long id, double latitude, double longitude) throws IOException;
+
+	// called once after the last put and before the first get
+	public void seal(){
+	}
+
+	// writes latitude and longitude of the node into position, false if unknown
+	public abstract boolean get(long id, double[] position);
+
+	// number of stored positions
+	public abstract long size();
+
+	public abstract void close();
+
+	//****************************************************************************
+	// in memory
+
+	static class Heap extends LandmarkStore {
+
+		private long[] ids = new long[1024];
+		private double[] latitudes = new double[1024];
+		private double[] longitudes = new double[1024];
+		private int size = 0;
+		private boolean sorted = true;
+
+		public String name(){
+			return HEAP;
+		}
+
+		public void put(long id, double latitude, double longitude) throws IOException {
+			if(size == ids.length){
+				if(size == Integer.MAX_VALUE - 8)
+					throw new IOException("too many nodes for the heap landmark store");
+				int capacity = (int)Math.min(Integer.MAX_VALUE - 8, (long)size << 1);
+				ids = Arrays.copyOf(ids, capacity);
+				latitudes = Arrays.copyOf(latitudes, capacity);
+				longitudes = Arrays.copyOf(longitudes, capacity);
+			}
+			// osm files are usually sorted by node id
+			if(size > 0 && id <= ids[size-1]) sorted = false;
+
+			ids[size] = id;
+			latitudes[size] = latitude;
+			longitudes[size] = longitude;
+			size++;
+		}
+
+		public void seal(){
+			if(sorted) return;
+
+			// stable order, so the last position of a repeated node wins
+			int[] order = new int[size];
+			for(int i=0; i<size; i++) order[i] = i;
+			mergeSort(order, new int[size], 0, size);
+
+			long[] sortedIds = new long[size];
+			double[] sortedLatitudes = new double[size];
+			double[] sortedLongitudes = new double[size];
+			int n = 0;
+			for(int i=0; i<size; i++){
+				int k = order[i];
+				if(n > 0 && sortedIds[n-1] == ids[k]) n--;
+				sortedIds[n] = ids[k];
+				sortedLatitudes[n] = latitudes[k];
+				sortedLongitudes[n] = longitudes[k];
+				n++;
+			}
+
+			ids = sortedIds;
+			latitudes = sortedLatitudes;
+			longitudes = sortedLongitudes;
+			size = n;
+			sorted = true;
+		}
+
+		private void mergeSort(int[] order, int[] buffer, int from, int to){
+			if(to - from < 2) return;
+			int middle = (from + to) >>> 1;
+			mergeSort(order, buffer, from, middle);
+			mergeSort(order, buffer, middle, to);
+			if(ids[order[middle-1]] <= ids[order[middle]]) return;
+
+			System.arraycopy(order, from, buffer, from, to - from);
+			int left = from, right = middle;
+			for(int i=from; i<to; i++){
+				if(right >= to || (left < middle && ids[buffer[left]] <= ids[buffer[right]]))
+					order[i] = buffer[left++];
+				else
+					order[i] = buffer[right++];
+			}
+		}
+
+		public boolean get(long id, double[] position){
+			int i = Arrays.binarySearch(ids, 0, size, id);
+			if(i < 0) return false;
+			position[0] = latitudes[i];
+			position[1] = longitudes[i];
+			return true;
+		}
+
+		public long size(){
+			return size;
+		}
+
+		public void close(){
+			ids = null;
+			latitudes = null;
+			longitudes = null;
+		}
+	}
+
+	//****************************************************************************
+	// memory-mapped file
+
+	static class Disk extends LandmarkStore {
+
+		// latitude and longitude per node id
+		private final static int RECORD_SIZE = 16;
+		// records per mapped window, keeps every mapping at 1 GB
+		private final static int WINDOW_BITS = 26;
+		private final static long WINDOW_MASK = (1L << WINDOW_BITS) - 1;
+
+		// the latitude is stored xor this value, so the zeros of the holes
+		// in the sparse file are no valid position
+		private final static long PRESENT = Double.doubleToRawLongBits(Double.NaN);
+
+		private final File file;
+		private FileChannel channel;
+		private final ArrayList<MappedByteBuffer> windows = new ArrayList<MappedByteBuffer>();
+		private long size = 0;
+
+		Disk() throws IOException {
+			file = File.createTempFile("osm2wkt-landmarks", ".bin");
+			file.deleteOnExit();
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+					StandardOpenOption.WRITE, StandardOpenOption.SPARSE);
+		}
+
+		public String name(){
+			return DISK;
+		}
+
+		private MappedByteBuffer window(long id, boolean create) throws IOException {
+			int w = (int)(id >>> WINDOW_BITS);
+			if(w >= windows.size() || windows.get(w) == null){
+				if(!create) return null;
+				while(windows.size() <= w) windows.add(null);
+				// mapping beyond the end grows the file without allocating the holes
+				MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE,
+						((long)w << WINDOW_BITS) * RECORD_SIZE, (WINDOW_MASK + 1) * RECORD_SIZE);
+				window.order(ByteOrder.nativeOrder());
+				windows.set(w, window);
+			}
+			return windows.get(w);
+		}
+
+		public void put(long id, double latitude, double longitude) throws IOException {
+			if(id < 0) throw new IOException("negative node id " + id
+					+ " is not supported by the disk landmark store");
+
+			MappedByteBuffer window = window(id, true);
+			int offset = (int)(id & WINDOW_MASK) * RECORD_SIZE;
+			if(window.getLong(offset) == 0) size++;
+			window.putLong(offset, Double.doubleToRawLongBits(latitude) ^ PRESENT);
+			window.putDouble(offset + 8, longitude);
+		}
+
+		public boolean get(long id, double[] position){
+			if(id < 0) return false;
+			MappedByteBuffer window;
+			try{
+				window = window(id, false);
+			}catch(IOException e){
+				return false;
+			}
+			if(window == null) return false;
+
+			int offset = (int)(id & WINDOW_MASK) * RECORD_SIZE;
+			long latitude = window.getLong(offset);
+			if(latitude == 0) return false;
+			position[0] = Double.longBitsToDouble(latitude ^ PRESENT);
+			position[1] = window.getDouble(offset + 8);
+			return true;
+		}
+
+		public long size(){
+			return size;
+		}
+
+		public void close(){
+			windows.clear();
+			try{
+				channel.close();
+			}catch(IOException e){
+				// nothing to do, the file is deleted anyway
+			}
+			// the mappings are released by the garbage collector, the file
+			// can be unlinked while they are still in place
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package osm2wkt;
+
+// open addressing hash set of unordered pairs of longs. the pair is stored
+// order-normalised as (min,max) in two primitive arrays, so (a,b) and (b,a)
+// are the same key and no objects are allocated per entry
+public class LongPairSet {
+
+	private final static long EMPTY = Long.MIN_VALUE;
+	private final static float LOAD_FACTOR = 0.6f;
+
+	private long[] lows;
+	private long[] highs;
+	private int size = 0;
+	private int mask;
+	private int resizeAt;
+
+	public LongPairSet(){
+		this(1024);
+	}
+
+	public LongPairSet(int expected){
+		int capacity = 16;
+		while(capacity * LOAD_FACTOR < expected) capacity <<= 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity){
+		lows = new long[capacity];
+		highs = new long[capacity];
+		java.util.Arrays.fill(lows, EMPTY);
+		mask = capacity - 1;
+		resizeAt = (int)(capacity * LOAD_FACTOR);
+	}
+
+	private static int hash(long low, long high){
+		long h = low * 0x9E3779B97F4A7C15L + high;
+		h ^= (h >>> 32);
+		h *= 0xC2B2AE3D27D4EB4FL;
+		return (int)(h ^ (h >>> 29));
+	}
+
+	// returns true if the pair was not yet contained
+	public boolean add(long a, long b){
+		long low = Math.min(a, b);
+		long high = Math.max(a, b);
+		if(low == EMPTY) throw new IllegalArgumentException("key " + EMPTY + " is reserved");
+
+		int slot = hash(low, high) & mask;
+		while(lows[slot] != EMPTY){
+			if(lows[slot] == low && highs[slot] == high) return false;
+			slot = (slot + 1) & mask;
+		}
+
+		lows[slot] = low;
+		highs[slot] = high;
+		if(++size >= resizeAt) rehash();
+		return true;
+	}
+
+	public boolean contains(long a, long b){
+		long low = Math.min(a, b);
+		long high = Math.max(a, b);
+
+		int slot = hash(low, high) & mask;
+		while(lows[slot] != EMPTY){
+			if(lows[slot] == low && highs[slot] == high) return true;
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public void clear(){
+		java.util.Arrays.fill(lows, EMPTY);
+		size = 0;
+	}
+
+	private void rehash(){
+		long[] oldLows = lows;
+		long[] oldHighs = highs;
+		allocate(oldLows.length << 1);
+
+		for(int i=0; i<oldLows.length; i++){
+			if(oldLows[i] == EMPTY) continue;
+			int slot = hash(oldLows[i], oldHighs[i]) & mask;
+			while(lows[slot] != EMPTY) slot = (slot + 1) & mask;
+			lows[slot] = oldLows[i];
+			highs[slot] = oldHighs[i];
+		}
+	}
+}
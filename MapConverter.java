@@ -0,0 +1,218 @@
+package osm2wkt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+// api for using osm2wkt in-process. a converter runs all stages of the command
+// line tool on a map and returns the cleaned landmark/street model together
+// with its weighted graph, without writing any output files:
+//
+//   MapConverter converter = MapConverter.builder().repairCrossings(true).tileSize(1000).build();
+//   RoadMap map = converter.convert(new FileInputStream("map.osm"));
+//
+// a converter is immutable and can be used by several threads at once, every
+// call works on its own state. nothing is printed and nothing is read from the
+// console, the progress of the stages goes to the log if one is given
+public final class MapConverter {
+
+	public final static String OSM 		= "osm";
+	public final static String WKT 		= "wkt";
+	public final static String WKB 		= WkbFormat.FILE_EXT;
+	public final static String BINARY 	= RoadMapFile.FILE_EXT;
+
+	private final boolean repairCrossings;
+	private final double tileSize;
+	private final double simplifyTolerance;
+	private final boolean contractGraph;
+	private final String projection;
+	private final int translateX;
+	private final int translateY;
+	private final String landmarkStore;
+	private final boolean pipeline;
+	private final StageCache stageCache;
+	private final PrintStream log;
+
+	private MapConverter(Builder builder){
+		this.repairCrossings = builder.repairCrossings;
+		this.tileSize = builder.tileSize;
+		this.simplifyTolerance = builder.simplifyTolerance;
+		this.contractGraph = builder.contractGraph;
+		this.projection = builder.projection;
+		this.translateX = builder.translateX;
+		this.translateY = builder.translateY;
+		this.landmarkStore = builder.landmarkStore;
+		this.pipeline = builder.pipeline;
+		this.stageCache = builder.stageCache;
+		this.log = builder.log;
+	}
+
+	public static Builder builder(){
+		return new Builder();
+	}
+
+	// options of the conversion, the defaults are those of the command line tool
+	public static final class Builder {
+		private boolean repairCrossings = false;
+		private double tileSize = 0;
+		private double simplifyTolerance = 0;
+		private boolean contractGraph = false;
+		private String projection = Projection.HAVERSINE;
+		private int translateX = 0;
+		private int translateY = 0;
+		private String landmarkStore = LandmarkStore.AUTO;
+		private boolean pipeline = false;
+		private StageCache stageCache = null;
+		private PrintStream log = null;
+
+		private Builder(){
+		}
+
+		// insert missing landmarks at street crossings
+		public Builder repairCrossings(boolean repair){
+			this.repairCrossings = repair;
+			return this;
+		}
+
+		// repair crossings in tiles of this size in meters, 0 disables
+		public Builder tileSize(double meters){
+			if(meters < 0) throw new IllegalArgumentException("negative tile size " + meters);
+			this.tileSize = meters;
+			return this;
+		}
+
+		// douglas-peucker tolerance in meters, 0 disables
+		public Builder simplifyTolerance(double meters){
+			if(meters < 0) throw new IllegalArgumentException("negative tolerance " + meters);
+			this.simplifyTolerance = meters;
+			return this;
+		}
+
+		// collapse degree-2 landmarks in the weighted graph
+		public Builder contractGraph(boolean contract){
+			this.contractGraph = contract;
+			return this;
+		}
+
+		public Builder projection(String name){
+			Projection.forName(name);
+			this.projection = name;
+			return this;
+		}
+
+		public Builder translate(int x, int y){
+			this.translateX = x;
+			this.translateY = y;
+			return this;
+		}
+
+		// auto, heap, disk or external
+		public Builder landmarkStore(String type){
+			if(!type.equals(LandmarkStore.AUTO) && !type.equals(LandmarkStore.HEAP)
+					&& !type.equals(LandmarkStore.DISK) && !type.equals(ExternalJoin.NAME))
+				throw new IllegalArgumentException("unknown landmark store " + type);
+			this.landmarkStore = type;
+			return this;
+		}
+
+		public Builder pipeline(boolean pipeline){
+			this.pipeline = pipeline;
+			return this;
+		}
+
+		// cache of the loading, repair and partition removal stages, null disables
+		public Builder stageCache(File directory, long maxBytes){
+			this.stageCache = directory == null ? null : new StageCache(directory, maxBytes);
+			return this;
+		}
+
+		// progress of the stages, null discards it
+		public Builder log(PrintStream log){
+			this.log = log;
+			return this;
+		}
+
+		public MapConverter build(){
+			return new MapConverter(this);
+		}
+	}
+
+	// converts openstreetmap xml
+	public RoadMap convert(InputStream in) throws IOException {
+		return convert(in, OSM);
+	}
+
+	// converts a map in the given format: osm, wkt, wkb or binary road map.
+	// the stream is not closed
+	public RoadMap convert(InputStream in, String format) throws IOException {
+		if(!format.equals(OSM) && !format.equals(WKT) && !format.equals(WKB) && !format.equals(BINARY))
+			throw new IllegalArgumentException("unknown map format " + format);
+
+		// the stages read files, so the stream is copied into a temporary one
+		File file = File.createTempFile("osm2wkt-map", "." + format);
+		try{
+			Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return convert(file);
+		}finally{
+			file.delete();
+		}
+	}
+
+	// converts a map file, the format is given by its extension
+	public RoadMap convert(File file) throws IOException {
+		LastLine lastLine = new LastLine(log);
+		Osm2Wkt converter = new Osm2Wkt();
+		converter.repairCrossings = repairCrossings;
+		converter.tileSize = tileSize;
+		converter.simplifyTolerance = simplifyTolerance;
+		converter.contractGraph = contractGraph;
+		converter.projection = Projection.forName(projection);
+		converter.landmarkStore = landmarkStore;
+		converter.pipeline = pipeline;
+		converter.stageCache = stageCache;
+		converter.log = new PrintStream(lastLine, true);
+
+		if(!converter.process(file.getPath(), translateX, translateY, null)){
+			throw new IOException("converting " + file.getName() + " failed"
+					+ (lastLine.line() == null ? "" : ", " + lastLine.line()));
+		}
+		return converter.toRoadMap(true);
+	}
+
+	// passes the log on and keeps its last message for error messages,
+	// stack traces are skipped
+	private static class LastLine extends OutputStream {
+		private final static java.util.regex.Pattern TRACE =
+			java.util.regex.Pattern.compile("\\s.*|Caused by:.*|[\\w.$]+(Exception|Error)(:.*)?");
+
+		private final PrintStream target;
+		private final StringBuilder current = new StringBuilder();
+		private String last = null;
+
+		LastLine(PrintStream target){
+			this.target = target;
+		}
+
+		public void write(int b){
+			if(target != null) target.write(b);
+			if(b == '\n'){
+				if(current.length() > 0 && !TRACE.matcher(current).matches()) last = current.toString();
+				current.setLength(0);
+			}else if(b != '\r' && current.length() < 1024){
+				current.append((char)b);
+			}
+		}
+
+		public void flush(){
+			if(target != null) target.flush();
+		}
+
+		String line(){
+			return last;
+		}
+	}
+}
@@ -3,23 +3,37 @@ package osm2wkt;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
 import java.io.Reader;
 import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.ArrayList;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.text.DecimalFormat;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.TransformerConfigurationException;
 
+import org.jgrapht.Graphs;
 import org.jgrapht.alg.ConnectivityInspector;
 import org.jgrapht.graph.DefaultEdge;
 import org.jgrapht.graph.DefaultWeightedEdge;
@@ -30,7 +44,6 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 import osm2wkt.exports.*;
 
@@ -44,8 +57,12 @@ public class Osm2Wkt {
 	private final static String XML_TAG_WAY 	= "way";
 	private final static String XML_TAG_ND 		= "nd";
 	private final static String XML_TAG_REF 	= "ref";
-	private final static String FILE_EXT_WKT	= "wkt";
-	private final static String FILE_EXT_OSM	= "osm";
+	final static String FILE_EXT_WKT	= "wkt";
+	final static String FILE_EXT_OSM	= "osm";
+	private final static String XML_TAG_OSMCHANGE	= "osmChange";
+	private final static String XML_TAG_CREATE 	= "create";
+	private final static String XML_TAG_MODIFY 	= "modify";
+	private final static String XML_TAG_DELETE 	= "delete";
 	private final static String WKT_TAG_BEGIN	= "LINESTRING (";
 	private final static String WKT_TAG_IBEGIN  = "LINESTRING";
 	private final static String WKT_TAG_BRACK1  = "(";
@@ -59,10 +76,28 @@ public class Osm2Wkt {
 	private WeightedPseudograph<Long, DefaultWeightedEdge> weightedGraph;
 	private WeightedPseudograph<Long, DefaultWeightedEdge> testweightedGraph;
 	private HashSet<Long> fixCompletenessAddedLandmarks = new HashSet<Long>();
-	private HashSet<String> edgesAlreadyAdded = new HashSet<String>();
+	private LongPairSet edgesAlreadyAdded = new LongPairSet();
+	boolean contractGraph = false; // collapse degree-2 landmarks in the weighted graph
+	double simplifyTolerance = 0;  // douglas-peucker tolerance in meters, 0 disables
+	Projection projection = Projection.forName(Projection.HAVERSINE);
+	boolean compress = false;      // gzip the wkt and exported files
+	boolean writeBinary = false;   // additionally write the binary road map
+	boolean repairCrossings = false; // insert missing landmarks at street crossings
+	double tileSize = 0;           // repair crossings in tiles of this size in meters, 0 disables
+	String landmarkStore = LandmarkStore.AUTO; // where the osm nodes are kept while reading
+	private double[] geoBounds = null; // latitude and longitude bounds of all osm nodes read
+	boolean pipeline = false;      // parse, project and index osm files in overlapping stages
+	private StreetParts streamedParts = null; // tiled repair index filled by the pipeline
+	StageCache stageCache = null;  // null if the stage cache is bypassed
+	String stateFile = null;       // write the repaired map state for later updates
+	boolean projected = false;     // landmarks are projected osm coordinates
+	double translatedX = 0;        // translation applied to the projected landmarks
+	double translatedY = 0;
 	static int precisonFloating = 3; // use 3 decimals after comma for rounding
 	double epsilon = 0.0001;
 	String Snum = new String();
+	PrintStream log = System.out;  // progress and problems of the stages
+	StageMetrics metrics = null;   // timings and counters of the stages, null if not recorded
 
 	private class Landmark {
 		long id = 0;
@@ -70,6 +105,7 @@ public class Osm2Wkt {
 		double longitude = 0;
 		double x = 0;
 		double y = 0;		
+		int index = 0; // position in the last RoadMap snapshot
 
 		public boolean equals(Object o) {
 			if(this == o) return true;
@@ -89,7 +125,7 @@ public class Osm2Wkt {
 		for( ; true; i++){
 			if(landmarks.containsKey(i) == false && i > 0) 
 			{	
-				//System.out.println("i=" + i);
+				//log.println("i=" + i);
 				return i;
 			}
 		}
@@ -102,114 +138,245 @@ public class Osm2Wkt {
 	}
 
 	private boolean readOsm(String filename){
-		System.out.println("reading in openstreetmap xml ...");
+		log.println("reading in openstreetmap xml ...");
 
+		// check if file exists
+		File file = new File(filename);
+		if(!file.exists()){
+			log.println("osm file " + filename + " does not exist");
+			return false;
+		}
+
+		LandmarkStore nodes = null;
+		long missing = 0;
 		try {
-			// check if file exists
-			File file = new File(filename);
-			if(!file.exists()){
-				System.out.println("osm file " + filename + " does not exist");
-				return false;
-			}
+			if(landmarkStore.equals(ExternalJoin.NAME)){
+				log.println("joining osm nodes and ways in external memory");
+				missing = joinExternal(file);
+			}else{
+				// nodes go into the landmark store, only the landmarks of the
+				// streets are created after all ways have been read
+				nodes = LandmarkStore.create(landmarkStore, file.length());
+				log.println("keeping osm nodes in the " + nodes.name() + " landmark store");
+
+				final LandmarkStore store = nodes;
+				final double[] bounds = {90, -90, 180, -180};
+				OsmReader.read(file, new OsmReader.Handler(){
+					public void node(long id, double latitude, double longitude) throws IOException {
+						store.put(id, latitude, longitude);
+						if(latitude < bounds[0])  bounds[0] = latitude;
+						if(latitude > bounds[1])  bounds[1] = latitude;
+						if(longitude < bounds[2]) bounds[2] = longitude;
+						if(longitude > bounds[3]) bounds[3] = longitude;
+					}
 
-			// read in xml
-			DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-			DocumentBuilder db = dbf.newDocumentBuilder();
-			Document doc = db.parse(file);
-			doc.getDocumentElement().normalize();
-
-			// check for valid openstreetmap xml root tag
-			// this works because we are currently at the root element
-			/*
-			 *	Even this might work  
-			 *  Element root = doc.getDocumentElement();
-			 *
-			 */ 
-			if(! doc.getDocumentElement().getNodeName().equals(XML_TAG_OSM)){
-				System.out.println("invalid osm file, root element is " 
-						+ doc.getDocumentElement().getNodeName()
-						+ " but should be " + XML_TAG_OSM);
-				return false;
+					public void way(long id, long[] refs, int count){
+						// if we found landmarks for this street add street
+						if(count == 0){
+							log.println("found no landmark childs for street " + id);
+							return;
+						}
+						Vector<Long> streetLandmarks = new Vector<Long>(count);
+						for(int i=0; i<count; i++) streetLandmarks.add(refs[i]);
+						streets.put(id, streetLandmarks);
+					}
+				}, log);
+				nodes.seal();
+
+				// the map is projected within the bounds of all nodes
+				if(nodes.size() > 0) geoBounds = bounds;
+
+				// resolve the street landmarks through the store
+				double[] position = new double[2];
+				Iterator<Vector<Long>> it = streets.values().iterator();
+				while(it.hasNext()){
+					Vector<Long> marks = it.next();
+					Iterator<Long> mit = marks.iterator();
+					while(mit.hasNext()){
+						Long ref = mit.next();
+						if(landmarks.containsKey(ref)) continue;
+						if(!nodes.get(ref, position)){
+							mit.remove();
+							missing++;
+							continue;
+						}
+						Landmark landObj = new Landmark();
+						landObj.id = ref;
+						landObj.latitude = position[0];
+						landObj.longitude = position[1];
+						landmarks.put(landObj.id, landObj);
+					}
+					if(marks.isEmpty()) it.remove();
+				}
 			}
 
-			// read in all landmarks
-			NodeList landmarkList = doc.getElementsByTagName(XML_TAG_NODE);
-			for( int s=0; s<landmarkList.getLength(); s++ ){
-				Node markNode = landmarkList.item(s);
-				if( markNode.getNodeType() != Node.ELEMENT_NODE ) continue;
-				Element markElement = (Element)markNode;   
-				// http://stackoverflow.com/questions/132564/whats-the-difference-between-an-element-and-a-node-in-xml
-
-				Attr idAttr = markElement.getAttributeNode(XML_TAG_ID);
-				Attr idLat = markElement.getAttributeNode(XML_TAG_LAT);
-				Attr idLon = markElement.getAttributeNode(XML_TAG_LON);
-
-				if(idAttr == null || idLat == null || idLon == null){
-					System.out.println("missing attribute in landmark " 
-							+ markNode.getNodeValue());       
-					continue;
-				}
+		} catch (Exception e) {
+			log.println("reading osm file failed: " + e.getLocalizedMessage());
+			e.printStackTrace(log);
+			return false;
+		} finally {
+			if(nodes != null) nodes.close();
+		}
+
+		if(missing > 0)
+			log.println("skipped " + missing + " street landmarks missing in the osm file");
+		log.println("parsing osm found " + streets.size() + " streets and " 
+				+ landmarks.size() + " landmarks");
 
-				Landmark landObj = new Landmark();
-				landObj.id = Long.valueOf(idAttr.getValue());
-				landObj.latitude = Double.valueOf(idLat.getValue());
-				landObj.longitude = Double.valueOf(idLon.getValue());
+		return true;
+	}
 
-				landmarks.put(landObj.id, landObj);
+	// resolves the streets by an external sort join, returns the number of
+	// missing street landmarks
+	private long joinExternal(File file) throws IOException {
+		ExternalJoin join = new ExternalJoin(log);
+		join.join(file, new ExternalJoin.Handler(){
+			public void street(long id, long[] refs, double[] latitudes, double[] longitudes, int count){
+				Vector<Long> streetLandmarks = new Vector<Long>(count);
+				for(int i=0; i<count; i++){
+					streetLandmarks.add(refs[i]);
+					if(landmarks.containsKey(refs[i])) continue;
+
+					Landmark landObj = new Landmark();
+					landObj.id = refs[i];
+					landObj.latitude = latitudes[i];
+					landObj.longitude = longitudes[i];
+					landmarks.put(landObj.id, landObj);
+				}
+				streets.put(id, streetLandmarks);
 			}
+		});
 
-			// read in all streets
-			NodeList wayList = doc.getElementsByTagName(XML_TAG_WAY);
-			for( int s=0; s<wayList.getLength(); s++ ){
-				Node wayNode = wayList.item(s);
-				if( wayNode.getNodeType() != Node.ELEMENT_NODE ) continue;
-				Element wayElement = (Element)wayNode;
-
-				Attr idAttr = wayElement.getAttributeNode(XML_TAG_ID);
-				if(idAttr == null){
-					System.out.println("missing attribute in street "
-							+ wayNode.getNodeValue());
-					continue;
-				}
+		// the map is projected within the bounds of all nodes
+		if(join.nodeCount() > 0) geoBounds = join.bounds();
+		return join.missing();
+	}
+
+	// reads, projects and resolves the osm file in a pipeline. the street parts
+	// are indexed for the tiled repair as the ways arrive. the bounds element of
+	// the file is the origin of the projection, so the coordinates differ from
+	// those without pipeline if the bounds are larger than the nodes. only if
+	// nodes lie outside of the bounds, the map is projected again afterwards
+	private boolean readOsmPipelined(String filename, final int translateX, final int translateY){
+		log.println("reading in openstreetmap xml in a pipeline ...");
+
+		File file = new File(filename);
+		if(!file.exists()){
+			log.println("osm file " + filename + " does not exist");
+			return false;
+		}
 
-				Long streetId = Long.valueOf(idAttr.getValue());
-				Vector<Long> streetLandmarks = new Vector<Long>();
-
-				// get landmarks for this street
-				NodeList ndList = wayNode.getChildNodes();
-				for( int t=0; t<ndList.getLength(); t++){
-					Node ndNode = ndList.item(t);
-					if( ndNode.getNodeType() != Node.ELEMENT_NODE ) continue;
-					if( ndNode.getNodeName() != XML_TAG_ND) continue;
-					Element ndElement = (Element)ndNode;
-
-					Attr refAttr = ndElement.getAttributeNode(XML_TAG_REF);
-					if(refAttr == null){
-						System.out.println("missing attribute in street landmark "
-								+ ndNode.getNodeValue());
+		final HashMap<Long,Landmark> nodes = new HashMap<Long,Landmark>();
+		final ArrayList<Long> deferred = new ArrayList<Long>();
+		final HashMap<Long,Vector<Long>> deferredRefs = new HashMap<Long,Vector<Long>>();
+		final StreetParts[] index = { repairCrossings && tileSize > 0 ? new StreetParts() : null };
+		final double[] extent = { Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+		OsmPipeline reader = new OsmPipeline(projection, translateX, translateY, log);
+
+		try {
+			reader.run(file, new OsmPipeline.Consumer(){
+				public void nodes(OsmPipeline.Batch batch){
+					for(int i=0; i<batch.size; i++){
+						Landmark landObj = new Landmark();
+						landObj.id = batch.ids[i];
+						landObj.latitude = batch.latitudes[i];
+						landObj.longitude = batch.longitudes[i];
+						if(batch.x != null){
+							landObj.x = batch.x[i];
+							landObj.y = batch.y[i];
+							extent[0] = Math.min(extent[0], landObj.x);
+							extent[1] = Math.min(extent[1], landObj.y);
+							extent[2] = Math.max(extent[2], landObj.x);
+							extent[3] = Math.max(extent[3], landObj.y);
+						}else{
+							index[0] = null;
+						}
+						nodes.put(landObj.id, landObj);
 					}
 
-					streetLandmarks.add(Long.valueOf(refAttr.getValue()));
+					// the same limit as the tiled repair, don't index into too many tiles
+					if(index[0] != null && (Math.floor(extent[2] / tileSize) - Math.floor(extent[0] / tileSize) + 1)
+							* (Math.floor(extent[3] / tileSize) - Math.floor(extent[1] / tileSize) + 1) > Integer.MAX_VALUE)
+						index[0] = null;
 				}
 
-				// if we found landmarks for this street add street
-				if(!streetLandmarks.isEmpty()){
-					streets.put(streetId, streetLandmarks);
-				}else{
-					System.out.println("found no landmark childs for street " 
-							+ wayNode.getNodeValue());
-				}
-			}
+				public void ways(OsmPipeline.Batch batch){
+					for(int w=0; w<batch.size; w++){
+						Long id = batch.ids[w];
+						Vector<Long> marks = new Vector<Long>(batch.offsets[w+1] - batch.offsets[w]);
+						for(int k=batch.offsets[w]; k<batch.offsets[w+1]; k++) marks.add(batch.refs[k]);
+						if(marks.isEmpty()){
+							log.println("found no landmark childs for street " + id);
+							continue;
+						}
 
+						// ways before their nodes are resolved at the end
+						boolean complete = true;
+						for(Long m : marks) complete &= nodes.containsKey(m);
+						if(!complete || deferredRefs.containsKey(id)){
+							deferred.add(id);
+							deferredRefs.put(id, marks);
+							index[0] = null;
+							continue;
+						}
+
+						for(Long m : marks) landmarks.put(m, nodes.get(m));
+						if(streets.put(id, marks) != null) index[0] = null;
+						else if(index[0] != null) index[0].add(id, marks);
+					}
+				}
+			});
 		} catch (Exception e) {
-			System.out.println("reading osm file failed: " + e.getLocalizedMessage());
-			e.printStackTrace();
+			log.println("reading osm file failed: " + e.getLocalizedMessage());
+			e.printStackTrace(log);
 			return false;
 		}
 
-		System.out.println("parsing osm found " + streets.size() + " streets and " 
+		long missing = 0;
+		for(Long id : deferred){
+			Vector<Long> marks = deferredRefs.remove(id);
+			if(marks == null) continue;
+			Iterator<Long> it = marks.iterator();
+			while(it.hasNext()){
+				Long m = it.next();
+				Landmark mark = nodes.get(m);
+				if(mark == null){
+					it.remove();
+					missing++;
+					continue;
+				}
+				landmarks.put(m, mark);
+			}
+			if(!marks.isEmpty()) streets.put(id, marks);
+		}
+
+		if(missing > 0)
+			log.println("skipped " + missing + " street landmarks missing in the osm file");
+		log.println("parsing osm found " + streets.size() + " streets and " 
 				+ landmarks.size() + " landmarks");
+		if(reader.nodeCount() > 0) geoBounds = reader.nodeBounds();
+
+		// the bounds of the file are the origin of the projection while reading.
+		// only nodes outside of them need the projection of all nodes, as without pipeline
+		if(!reader.projected()){
+			log.println("no bounds in the osm file, projecting after reading");
+			return transformCoordinates(translateX, translateY);
+		}
+		double[] fileBounds = projection.bounds();
+		if(geoBounds != null && (geoBounds[0] < fileBounds[0] || geoBounds[1] > fileBounds[1]
+				|| geoBounds[2] < fileBounds[2] || geoBounds[3] > fileBounds[3])){
+			log.println("osm nodes lie outside of the bounds of the file, projecting again");
+			return transformCoordinates(translateX, translateY);
+		}
 
+		log.println("projected geographic landmarks using " + projection.name()
+				+ " projection while reading, within the bounds of the file");
+		if(translateX != 0 || translateY != 0)
+			log.println("translating map by x=" + translateX + " and y=" + translateY);
+		projected = true;
+		translatedX = translateX;
+		translatedY = translateY;
+		streamedParts = index[0];
 		return true;
 	}
 
@@ -252,13 +419,13 @@ public class Osm2Wkt {
 	//****************************************************************************
 
 	private boolean readWkt(String filename){                      
-		System.out.println("reading in wkt format ...");		   
+		log.println("reading in wkt format ...");		   
 
 		try {
 			// check is file exists
 			File file = new File(filename);
 			if(!file.exists()){
-				System.out.println("wkt file " + filename + " does not exist");
+				log.println("wkt file " + filename + " does not exist");
 				return false;
 			}
 
@@ -280,7 +447,7 @@ public class Osm2Wkt {
 					item = item.trim();
 					String onetwo[] = item.split(WKT_TAG_MARKSEP2);
 					if(onetwo.length != 2){
-						System.out.println("invalid coordinate pair: " + item);
+						log.println("invalid coordinate pair: " + item);
 						continue;
 					}
 
@@ -318,44 +485,37 @@ public class Osm2Wkt {
 			} 
 
 		}catch(Exception e){
-			System.out.println("reading wkt file failed: " + e.getLocalizedMessage());
-			e.printStackTrace();
+			log.println("reading wkt file failed: " + e.getLocalizedMessage());
+			e.printStackTrace(log);
 			return false;
 		}
 
-		System.out.println("parsing wkt found " + streets.size() + " streets");
+		log.println("parsing wkt found " + streets.size() + " streets");
 		return true;
 	}
 
 	private boolean fixCompleteness(){
-		System.out.println("checking landmark completeness for all streets ...");
+		log.println("checking landmark completeness for all streets ...");
 
 		for(Vector<Long> l : streets.values()){
 			for(Long mark : l){
 				if(!landmarks.containsKey(mark)){
-					System.out.println("landmarks " + mark + " for street not found");
+					log.println("landmarks " + mark + " for street not found");
 					return false;
 				}
 			}
 		}
 
-		System.out.println("all required landmarks available for all streets");
-
-		System.out.println("do you want to fix missing landmarks? " +
-		"this will take very long but can heavily reduce map partitioning");
-		System.out.print("type 'y' or 'n': ");
-		int r = 0;
-		try {
-			r = System.in.read();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		if(r != 'y') return true;     // ?? on entering Y why are we returning shouldn't we start comparing
+		log.println("all required landmarks available for all streets");
+		if(!repairCrossings) return true;
+		if(tileSize > 0) return repairCrossingsTiled();
 
-		System.out.println("checking for missing landmarks for crossing street parts. this may take a while ...");
+		log.println("checking for missing landmarks for crossing street parts. this may take a while ...");
 
 		boolean changed = false;  
 		long missingLandmarks = 0;
+		long candidates = 0;
+		long crossings = 0;
 
 		do{
 			changed = false;
@@ -406,7 +566,7 @@ public class Osm2Wkt {
 						for(Iterator<Long> iterpB = streetPointsB.iterator(); iterpB.hasNext(); indexB++){
 							Long pB = iterpB.next();
 
-							//System.out.println("running " + indexA + " against index " + indexB);
+							//log.println("running " + indexA + " against index " + indexB);
 
 							if(lastBP == -1 || lastBL == null){
 								lastBP = pB;
@@ -420,29 +580,30 @@ public class Osm2Wkt {
 							// check for crossings in the two street parts
 							// [lastAP,currentAP] and [lastBP,currentBP]
 
+							candidates++;
 							Landmark crossing = checkCrossing(
 									lastAL, currentAL,
 									lastBL, currentBL
 							);
 
 							if(crossing != null){
+								crossings++;
 
 								// add this id to a set
 								if(!streetPointsA.contains(crossing.id)){
 									streetPointsA.add(indexA, crossing.id);
-									//System.out.println("Adding landmark to street A");
+									//log.println("Adding landmark to street A");
 									changed = true;
 								}
 
 								if(!streetPointsB.contains(crossing.id)){
 									streetPointsB.add(indexB, crossing.id);
-									//System.out.println("Adding landmark to street B");
+									//log.println("Adding landmark to street B");
 									changed = true;
 								}
 
 								if(changed){
 									missingLandmarks++;
-									fixCompletenessAddedLandmarks.add(crossing.id);	
 									break;
 								}
 
@@ -476,16 +637,277 @@ public class Osm2Wkt {
 		//while(it.hasNext())
 		//{
 		//	Long id = (Long) it.next();
-		//	System.out.println(" : " + id);
+		//	log.println(" : " + id);
 		//}
 
-		System.out.println("inserted " + missingLandmarks 
+		log.println("inserted " + missingLandmarks 
 				+ " missing landmarks. currently have "
 				+ landmarks.size() + " landmarks");
+		count("candidatePairs", candidates);
+		count("crossingsFound", crossings);
+		count("crossingsInserted", missingLandmarks);
 		return true;
 	}
 
+	// street parts of the tiled repair, numbered in the order they are added
+	private class StreetParts {
+		final SegmentGrid tiles = new SegmentGrid(tileSize);
+		final ArrayList<SegmentGrid.Segment> parts = new ArrayList<SegmentGrid.Segment>();
+		final HashMap<Long,Integer> firstPart = new HashMap<Long,Integer>();
+
+		void add(Long street, Vector<Long> marks){
+			firstPart.put(street, parts.size());
+			for(int k=1; k<marks.size(); k++){
+				Landmark a = landmarks.get(marks.get(k-1));
+				Landmark b = landmarks.get(marks.get(k));
+				SegmentGrid.Segment part = new SegmentGrid.Segment(street, a.id, b.id,
+						parts.size(), a.x, a.y, b.x, b.y);
+				parts.add(part);
+				tiles.add(part);
+			}
+		}
+	}
+
+	// crossing of two street parts found in a tile
+	private static class TileCrossing {
+		final SegmentGrid.Segment a, b;
+		final double x, y;
+		final long existing; // landmark within epsilon or SegmentGrid.NONE
+
+		TileCrossing(SegmentGrid.Segment a, SegmentGrid.Segment b, double x, double y, long existing){
+			this.a = a;
+			this.b = b;
+			this.x = x;
+			this.y = y;
+			this.existing = existing;
+		}
+	}
+
+	// the crossing repair of fixCompleteness, done in square tiles of the
+	// projected map. a tile checks the street parts overlapping it, parts
+	// crossing its border are checked in all tiles they touch, but a crossing
+	// is only kept by the tile that contains the crossing point. the tiles only
+	// read the map and run in parallel. the crossings are then stitched in
+	// tile order: crossings closer than epsilon become one landmark and are
+	// inserted into both streets in order along the street part. the global
+	// connectivity pass is the simplifyModel that follows the repair
+	private boolean repairCrossingsTiled(){
+		log.println("checking for missing landmarks for crossing street parts in tiles of "
+				+ tileSize + " meters ...");
+
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		final SegmentGrid points = new SegmentGrid(GRID_CELL_SIZE);
+		for(Landmark lm : landmarks.values()){
+			minX = Math.min(minX, lm.x);
+			minY = Math.min(minY, lm.y);
+			maxX = Math.max(maxX, lm.x);
+			maxY = Math.max(maxY, lm.y);
+			points.addPoint(lm.id, lm.x, lm.y);
+		}
+		if(landmarks.isEmpty()) return true;
+
+		// tiles are aligned to the cells of the tile grid
+		final long firstX = (long)Math.floor(minX / tileSize);
+		final long firstY = (long)Math.floor(minY / tileSize);
+		long tileColumns = (long)Math.floor(maxX / tileSize) - firstX + 1;
+		long tileRows = (long)Math.floor(maxY / tileSize) - firstY + 1;
+		if(tileColumns * tileRows > Integer.MAX_VALUE){
+			log.println("tile size " + tileSize + " is too small for the map, use larger tiles");
+			return false;
+		}
+		final int columns = (int)tileColumns;
+		final int rows = (int)tileRows;
+
+		// all street parts, indexed by tile. the pipeline fills the index while reading
+		StreetParts index = streamedParts;
+		streamedParts = null;
+		if(index == null){
+			index = new StreetParts();
+			for(Map.Entry<Long,Vector<Long>> entry : streets.entrySet()) index.add(entry.getKey(), entry.getValue());
+		}
+		final SegmentGrid tiles = index.tiles;
+		final ArrayList<SegmentGrid.Segment> parts = index.parts;
+		final HashMap<Long,Integer> firstPart = index.firstPart;
+
+		log.println("checking " + parts.size() + " street parts in " + columns + "x" + rows + " tiles");
+
+		final LongAdder candidates = new LongAdder();
+		List<ArrayList<TileCrossing>> found = IntStream.range(0, columns * rows).parallel()
+			.mapToObj(t -> crossingsInTile(tiles, points, firstX + t % columns, firstY + t / columns, candidates))
+			.collect(Collectors.toList());
+		count("tiles", columns * rows);
+		count("streetParts", parts.size());
+		count("candidatePairs", candidates.sum());
+
+		// stitch, new crossings near each other become one landmark
+		SegmentGrid created = new SegmentGrid(GRID_CELL_SIZE);
+		HashMap<Integer,ArrayList<Landmark>> splits = new HashMap<Integer,ArrayList<Landmark>>();
+		for(ArrayList<TileCrossing> tile : found){
+			count("crossingsFound", tile.size());
+			for(TileCrossing c : tile){
+				long id = c.existing;
+				if(id == SegmentGrid.NONE) id = created.findPoint(c.x, c.y, epsilon);
+				if(id == SegmentGrid.NONE){
+					Landmark crossing = new Landmark();
+					crossing.id = nextLandmarkIndex();
+					crossing.x = c.x;
+					crossing.y = c.y;
+					landmarks.put(crossing.id, crossing);
+					fixCompletenessAddedLandmarks.add(crossing.id);
+					created.addPoint(crossing.id, c.x, c.y);
+					id = crossing.id;
+				}
+				addSplit(splits, c.a.index, landmarks.get(id));
+				addSplit(splits, c.b.index, landmarks.get(id));
+			}
+		}
+
+		// insert the crossings into the streets, ordered along each street part
+		HashSet<Long> inserted = new HashSet<Long>();
+		for(Map.Entry<Long,Vector<Long>> entry : streets.entrySet()){
+			Vector<Long> street = entry.getValue();
+			int first = firstPart.get(entry.getKey());
+			boolean split = false;
+			for(int k=1; k<street.size() && !split; k++) split = splits.containsKey(first + k - 1);
+			if(!split) continue;
+
+			HashSet<Long> contained = new HashSet<Long>(street);
+			Vector<Long> result = new Vector<Long>(street.size() + 4);
+			result.add(street.get(0));
+			for(int k=1; k<street.size(); k++){
+				ArrayList<Landmark> marks = splits.get(first + k - 1);
+				if(marks != null){
+					// exact position along the part, equal positions ordered by
+					// coordinates so the order does not depend on the tiles
+					final Landmark from = landmarks.get(street.get(k-1));
+					final Landmark to = landmarks.get(street.get(k));
+					final double dx = to.x - from.x;
+					final double dy = to.y - from.y;
+					marks.sort((m1, m2) -> {
+						int c = Double.compare((m1.x - from.x)*dx + (m1.y - from.y)*dy,
+								(m2.x - from.x)*dx + (m2.y - from.y)*dy);
+						if(c == 0) c = Double.compare(m1.x, m2.x);
+						if(c == 0) c = Double.compare(m1.y, m2.y);
+						return c;
+					});
+					for(Landmark mark : marks){
+						if(!contained.add(mark.id)) continue;
+						result.add(mark.id);
+						inserted.add(mark.id);
+					}
+				}
+				result.add(street.get(k));
+			}
+			entry.setValue(result);
+		}
+
+		log.println("inserted " + inserted.size() 
+				+ " missing landmarks. currently have "
+				+ landmarks.size() + " landmarks");
+		count("crossingsInserted", inserted.size());
+		return true;
+	}
+
+	// crossings of the street parts in tile column tx and row ty, the checked
+	// pairs of street parts are added to candidates
+	private ArrayList<TileCrossing> crossingsInTile(SegmentGrid tiles, SegmentGrid points, long tx, long ty,
+			LongAdder candidates){
+		ArrayList<TileCrossing> found = new ArrayList<TileCrossing>();
+
+		// the parts touching the tile and a small overlap around it
+		LinkedHashSet<SegmentGrid.Segment> parts = tiles.query(tx * tileSize - epsilon, ty * tileSize - epsilon,
+				(tx + 1) * tileSize + epsilon, (ty + 1) * tileSize + epsilon);
+		if(parts.size() < 2) return found;
+
+		SegmentGrid grid = new SegmentGrid(GRID_CELL_SIZE);
+		for(SegmentGrid.Segment part : parts) grid.add(part);
+
+		for(SegmentGrid.Segment a : parts){
+			for(SegmentGrid.Segment b : grid.query(a.minX, a.minY, a.maxX, a.maxY)){
+				// every pair once, don't check a street with itself
+				if(b.index <= a.index || b.street == a.street) continue;
+
+				candidates.increment();
+				double[] point = crossingPoint(landmarks.get(a.from), landmarks.get(a.to),
+						landmarks.get(b.from), landmarks.get(b.to));
+				if(point == null) continue;
+
+				// the crossing belongs to the tile containing it
+				if((long)Math.floor(point[0] / tileSize) != tx) continue;
+				if((long)Math.floor(point[1] / tileSize) != ty) continue;
+
+				found.add(new TileCrossing(a, b, point[0], point[1], points.findPoint(point[0], point[1], epsilon)));
+			}
+		}
+		return found;
+	}
+
+	private static void addSplit(HashMap<Integer,ArrayList<Landmark>> splits, int part, Landmark mark){
+		ArrayList<Landmark> marks = splits.get(part);
+		if(marks == null){
+			marks = new ArrayList<Landmark>(2);
+			splits.put(part, marks);
+		}
+		if(!marks.contains(mark)) marks.add(mark);
+	}
+
+	// asked once per run, before the stages start
+	private static boolean askRepairCrossings(){
+		System.out.println("do you want to fix missing landmarks? " +
+		"this will take very long but can heavily reduce map partitioning");
+		System.out.print("type 'y' or 'n': ");
+		int r = 0;
+		try {
+			r = System.in.read();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return r == 'y';
+	}
+
 	private Landmark checkCrossing(Landmark a1, Landmark a2, Landmark b1, Landmark b2){
+		return checkCrossing(a1, a2, b1, b2, null);
+	}
+
+	// with a grid the existing landmarks are looked up in its point index
+	private Landmark checkCrossing(Landmark a1, Landmark a2, Landmark b1, Landmark b2, SegmentGrid grid){
+		double[] point = crossingPoint(a1, a2, b1, b2);
+		if(point == null) return null;
+		double x = point[0];
+		double y = point[1];
+
+		// valid crossing -> can we use existing landmark?
+		Landmark crossing = null;
+		if(grid != null){
+			long id = grid.findPoint(x, y, epsilon);
+			if(id != SegmentGrid.NONE) crossing = landmarks.get(id);
+		}else{
+			for(Landmark m : landmarks.values()){
+				if(Math.abs(m.x - x) < epsilon && Math.abs(m.y - y) < epsilon){
+					crossing = m;
+					break;
+				}
+			}
+		}
+
+		if(crossing == null){
+			crossing = new Landmark();
+			crossing.id = nextLandmarkIndex();
+			crossing.x = x;
+			crossing.y = y;
+			landmarks.put(crossing.id, crossing);
+			fixCompletenessAddedLandmarks.add(crossing.id);
+			if(grid != null) grid.addPoint(crossing.id, x, y);
+		}
+
+		return crossing;
+	}
+
+	// crossing of the street parts a1-a2 and b1-b2 rounded to the precision,
+	// null if they don't cross. only reads the landmarks, so tiles of the map
+	// can be checked concurrently
+	private static double[] crossingPoint(Landmark a1, Landmark a2, Landmark b1, Landmark b2){
 		// see http://www.ucancode.net/faq/C-Line-Intersection-2D-drawing.htm
 		// for 2d line crossing checks
 
@@ -507,11 +929,11 @@ public class Osm2Wkt {
 		// set precision
 		double x = (bB*aC - aB*bC)/det;
 		x = Osm2Wkt.round(x, Osm2Wkt.precisonFloating);
-		//System.out.println("x = " + x);
+		//log.println("x = " + x);
 
 		double y = (aA*bC - bA*aC)/det;		
 		y = Osm2Wkt.round(y, Osm2Wkt.precisonFloating);
-		//System.out.println("y = " + y);
+		//log.println("y = " + y);
 
 		// check for x validity
 		boolean valid =    
@@ -523,30 +945,21 @@ public class Osm2Wkt {
 		// crossing but not within the line dimensions
 		if(!valid) return null;
 
-		// valid crossing -> can we use existing landmark?
-		Landmark crossing = null;
-		for(Landmark m : landmarks.values()){
-			if(Math.abs(m.x - x) < epsilon && Math.abs(m.y - y) < epsilon){
-				crossing = m;
-				break;
-			}
-		}
-
-		if(crossing == null){
-			crossing = new Landmark();
-			crossing.id = nextLandmarkIndex();
-			crossing.x = x;
-			crossing.y = y;
-			landmarks.put(crossing.id, crossing);
-		}
-
-		return crossing;
+		return new double[]{ x, y };
 	}
 
-	private boolean transformCoordinates(){
+	private boolean transformCoordinates(int translateX, int translateY){
 		// in this function we have to restrict the precision we calculate the x, y coordinates
 		// of the point to avoid floating point errors
-		System.out.println("transforming geographic landmarks ...");
+		log.println("transforming geographic landmarks using " + projection.name() + " projection ...");
+
+		// copy the landmarks into primitive arrays for the projection
+		int count = landmarks.size();
+		Landmark[] marks = landmarks.values().toArray(new Landmark[count]);
+		double[] lat = new double[count];
+		double[] lon = new double[count];
+		double[] x = new double[count];
+		double[] y = new double[count];
 
 		// search for top,bottom,left,right marks
 		// latitude is horizontal from -90 -- 0 -- 90
@@ -557,15 +970,24 @@ public class Osm2Wkt {
 		latMin = 90; latMax = -90;
 		lonMin = 180; lonMax = -180;
 
+		// osm nodes that are no street landmarks still count for the bounds
+		if(geoBounds != null){
+			latMin = geoBounds[0]; latMax = geoBounds[1];
+			lonMin = geoBounds[2]; lonMax = geoBounds[3];
+		}
+
 		// search for geographic bounds
-		for(Landmark l : landmarks.values()){
+		for(int i=0; i<count; i++){
+			Landmark l = marks[i];
+			lat[i] = l.latitude;
+			lon[i] = l.longitude;
 			if(l.latitude < latMin)  latMin = l.latitude;
 			if(l.latitude > latMax)  latMax = l.latitude;
 			if(l.longitude < lonMin) lonMin = l.longitude;
 			if(l.longitude > lonMax) lonMax = l.longitude;	
 		}
 
-		System.out.println("found geographic bounds:"
+		log.println("found geographic bounds:"
 				+ " latitude from " + latMin + " to " + latMax
 				+ " longitude from " + lonMin + " to " + lonMax);
 
@@ -573,13 +995,23 @@ public class Osm2Wkt {
 		double width = geoDistance(latMin, lonMin, latMin, lonMax);
 		double height = geoDistance(latMin, lonMin, latMax, lonMin);
 
-		System.out.println("geographic area dimensions are: height " 
+		log.println("geographic area dimensions are: height " 
 				+ height + "m, width " + width + "m");
 
-		// put coordinate system to upper left corner with (0,0), output in meters
-		for(Landmark l : landmarks.values()){
-			l.x = geoDistance(l.latitude, l.longitude, l.latitude, lonMin);
-			l.y = geoDistance(l.latitude, l.longitude, latMin, l.longitude);
+		// put coordinate system to lower left corner with (0,0), output in meters.
+		// the map translation is applied in the same pass
+		if(translateX != 0 || translateY != 0)
+			log.println("translating map by x=" + translateX + " and y=" + translateY);
+
+		projection.setup(latMin, latMax, lonMin, lonMax);
+		projection.projectAll(lat, lon, x, y, count, translateX, translateY);
+		projected = true;
+		translatedX = translateX;
+		translatedY = translateY;
+
+		for(int i=0; i<count; i++){
+			marks[i].x = x[i];
+			marks[i].y = y[i];
 		}
 
 		return true;
@@ -613,21 +1045,24 @@ public class Osm2Wkt {
 
 	private boolean translate(int x, int y){
 		if(x == 0 && y == 0) return true;
-		System.out.println("translating map by x=" + x + " and y=" + y);
+		log.println("translating map by x=" + x + " and y=" + y);
 
 		for(Landmark mark : landmarks.values()){
 			mark.x += x;
 			mark.y += y;
 		}
+		translatedX += x;
+		translatedY += y;
 
-		System.out.println("translation done");
+		log.println("translation done");
 		return true;
 	}
 
 	private boolean simplifyModel(boolean repair){
 
 		for(int i=1; i<=10; i++){
-			System.out.println("simplicatiation run " + i + " of max 10");
+			log.println("simplicatiation run " + i + " of max 10");
+			count("runs", 1);
 			boolean connected = simplifyGraph(repair);
 			if(connected) break;
 		}
@@ -636,7 +1071,7 @@ public class Osm2Wkt {
 	}
 
 	private boolean simplifyGraph(boolean repair){
-		System.out.println("simplyfing model, removing unconnected parts ...");
+		log.println("simplyfing model, removing unconnected parts ...");
 
 		// create a graph using JGraphT
 		Pseudograph<Long, DefaultEdge> graph = new Pseudograph<Long, DefaultEdge>(DefaultEdge.class);
@@ -673,22 +1108,23 @@ public class Osm2Wkt {
 		ConnectivityInspector<Long, DefaultEdge> inspector = 
 			new ConnectivityInspector<Long, DefaultEdge>(graph);
 		if(inspector.isGraphConnected()){
-			System.out.println("graph is connected, nothing to simplify");
+			log.println("graph is connected, nothing to simplify");
 			return true;
 		}
 
 		// we have partitions :(
-		System.out.println("graph is not connected, analyzing partitions ...");
+		log.println("graph is not connected, analyzing partitions ...");
 		List<Set<Long>> partitions = inspector.connectedSets();
-		System.out.print("found " + partitions.size() + " partitions: ");
+		count("partitions", partitions.size());
+		log.print("found " + partitions.size() + " partitions: ");
 
 		// print the different partition sizes
 		long count = 0;
 		for(Set<Long> partition : partitions){
-			System.out.print("[" + partition.size() + "] ");
+			log.print("[" + partition.size() + "] ");
 			count += partition.size();
 		}
-		System.out.print("\n");		
+		log.print("\n");		
 
 		// search for the largest partition, this one will be used
 		Set<Long> largestpartition = null;
@@ -699,14 +1135,14 @@ public class Osm2Wkt {
 				largestpartition = partition;
 		}
 
-		System.out.println("selecting largest partition of landmark size " 
+		log.println("selecting largest partition of landmark size " 
 				+ largestpartition.size()
 				+ ". removing unselected partitions of estimated " 
 				+ Math.abs(count-largestpartition.size())
 				+ " landmarks");
 
 		if(!repair){
-			System.out.println("not reparing");
+			log.println("not reparing");
 			return true;
 		}
 
@@ -719,7 +1155,7 @@ public class Osm2Wkt {
 			verticesRemove.addAll(partition);
 		}
 
-		System.out.println("analyzed " + verticesRemove.size() + " landmarks to remove");
+		log.println("analyzed " + verticesRemove.size() + " landmarks to remove");
 
 		// remove vertices and edges from unused partitions
 		int countRemovedLandmarks = 0;
@@ -758,7 +1194,9 @@ public class Osm2Wkt {
 
 		} //for(Long vertice : verticesRemove)
 
-		System.out.println("removed " + countRemovedStreets 
+		count("removedLandmarks", countRemovedLandmarks);
+		count("removedStreets", countRemovedStreets);
+		log.println("removed " + countRemovedStreets 
 				+ " unconnected streets and " + countRemovedLandmarks 
 				+ " unconnected landmarks. know have "
 				+ streets.size() + " streets in map built upon "
@@ -766,264 +1204,1225 @@ public class Osm2Wkt {
 		return false;
 	}
 
-	private boolean writeWkt(String wktfile, boolean append){
-		System.out.println("writing wkt file ...");
-
-		try {
-			File wkt = new File(wktfile);
-			if(!append){
-				if(wkt.exists()) wkt.delete();
-				wkt.createNewFile();
+	// douglas-peucker simplification of the street geometry. every street is
+	// simplified on its own and in parallel. endpoints, landmarks shared with
+	// another street and crossings inserted by fixCompleteness are never dropped,
+	// so the connectivity of the map is preserved
+	private boolean simplifyGeometry(final double tolerance){
+		if(tolerance <= 0) return true;
+		log.println("simplifying street geometry with tolerance " + tolerance + "m ...");
+
+		// count how often each landmark is used by the streets
+		final HashMap<Long,Integer> usage = new HashMap<Long,Integer>();
+		long pointsBefore = 0;
+		for(Vector<Long> street : streets.values()){
+			for(Long mark : street){
+				Integer count = usage.get(mark);
+				usage.put(mark, count == null ? 1 : count + 1);
 			}
-			FileWriter wktstream = new FileWriter(wkt, append);
-			if(append){
-				wktstream.append("\n");
-				wktstream.append("\n");
-				wktstream.append("\n");
-			}
-
-			for(Vector<Long> s : streets.values()){
-				wktstream.append(WKT_TAG_BEGIN);
+			pointsBefore += street.size();
+		}
 
-				for(int i=0; i<s.size(); i++){
-					Long l = s.elementAt(i);
-					Landmark mark = landmarks.get(l);
-					wktstream.append(mark.x + WKT_TAG_MARKADD + mark.y);
-					if(i+1 < s.size()) wktstream.append(WKT_TAG_MARKSEP1 + WKT_TAG_MARKSEP2);
-				}
+		// the maps are only read while the streets are simplified in parallel
+		final ArrayList<Long> streetIds = new ArrayList<Long>(streets.keySet());
+		final ArrayList<Vector<Long>> simplified = new ArrayList<Vector<Long>>(streetIds.size());
+		for(int i=0; i<streetIds.size(); i++) simplified.add(null);
 
-				wktstream.append(WKT_TAG_END + WKT_TAG_BREAK);
-			}
+		IntStream.range(0, streetIds.size()).parallel().forEach(i ->
+			simplified.set(i, simplifyStreet(streets.get(streetIds.get(i)), usage, tolerance))
+		);
 
-			wktstream.close();
+		long pointsAfter = 0;
+		for(int i=0; i<streetIds.size(); i++){
+			streets.put(streetIds.get(i), simplified.get(i));
+			pointsAfter += simplified.get(i).size();
+		}
 
-		} catch (IOException e) {
-			System.out.println("writing wkt file failed: " + e.getLocalizedMessage());
-			e.printStackTrace();
-			return false;
+		// landmarks that are no longer part of any street
+		HashSet<Long> used = new HashSet<Long>();
+		for(Vector<Long> street : streets.values()) used.addAll(street);
+		int countRemovedLandmarks = 0;
+		for(Iterator<Long> iter = landmarks.keySet().iterator(); iter.hasNext(); ){
+			Long mark = iter.next();
+			if(usage.containsKey(mark) && !used.contains(mark)){
+				iter.remove();
+				countRemovedLandmarks++;
+			}
 		}
 
-		System.out.println("writing wkt file done");
+		log.println("simplified geometry from " + pointsBefore + " to " + pointsAfter
+				+ " street points, removed " + countRemovedLandmarks + " landmarks");
 		return true;
 	}
 
-	private boolean PreparingWeightedGraph(){
-		System.out.println("Preparing weighted graph called");
-
-		// create a graph using JGraphT
-		weightedGraph = new WeightedPseudograph<Long, DefaultWeightedEdge>(DefaultWeightedEdge.class);
-		int numEdgesAdded = 0;
+	private Vector<Long> simplifyStreet(Vector<Long> street, HashMap<Long,Integer> usage, double tolerance){
+		int n = street.size();
+		if(n <= 2) return street;
 
-		// add all landmarks as verteces
-		for(Long l : landmarks.keySet()){
-			Landmark lm = landmarks.get(l);
-			assert((long)l == lm.id);
-			weightedGraph.addVertex(lm.id);
+		Landmark[] marks = new Landmark[n];
+		boolean[] keep = new boolean[n];
+		for(int i=0; i<n; i++){
+			Long id = street.elementAt(i);
+			marks[i] = landmarks.get(id);
+			keep[i] = usage.get(id) > 1 || fixCompletenessAddedLandmarks.contains(id);
 		}
-
-		// add all streets as edges between landmarks
-		for(Long s : streets.keySet()){
-			Vector<Long> marks = streets.get(s);
-			Landmark last = null;
-			Landmark current = null;
-
-			for(Long m : marks){
-				current = landmarks.get(m);
-				if(last == null){
-					last = current;
-					continue;
+		keep[0] = true;
+		keep[n-1] = true;
+
+		// run douglas-peucker on every part between two fixed landmarks
+		int[] stack = new int[2*n];
+		int start = 0;
+		for(int end=1; end<n; end++){
+			if(!keep[end]) continue;
+
+			int top = 0;
+			stack[top++] = start;
+			stack[top++] = end;
+			while(top > 0){
+				int last = stack[--top];
+				int first = stack[--top];
+				if(last - first < 2) continue;
+
+				double maxDistance = -1;
+				int index = -1;
+				for(int i=first+1; i<last; i++){
+					double d = segmentDistance(marks[i], marks[first], marks[last]);
+					if(d > maxDistance){
+						maxDistance = d;
+						index = i;
+					}
 				}
 
-				assert(weightedGraph.containsVertex(last.id) && 
-						weightedGraph.containsVertex(current.id));
-				// I hope adding edges more than once will not create any problem
-				// Yes it creates a lot of trouble ... 
-				// 1) the pseudograph implementation screws up the weight parameter
-				// 2) this is the not the graph we that we have obtained from osm data
-				//    osm data only gives you one edge between two points
-				//    For osm we have the specification of two joints which
-				//    form the end points of the edges and no specification 
-				//    of the edge between the two vertices is provided. So when 
-				//    we say we have and edge between two points it the the same 
-				//    edge how many ever times we say that and in what order we say that
-				String edge1 = (new Long(last.id)).toString() + " " + (new Long(current.id)).toString();
-				String edge2 = (new Long(current.id)).toString() + " " + (new Long(last.id)).toString();
-				double weight;
-
-				if(!edgesAlreadyAdded.contains(edge1) && !edgesAlreadyAdded.contains(edge2))
-				{
-					weightedGraph.addEdge(new Long(last.id), new Long(current.id));
-					numEdgesAdded += 1;
-					// following two vertices are already connected by an edge
-					edge1 = (new Long(last.id)).toString() + " " + (new Long(current.id)).toString();
-					edgesAlreadyAdded.add(edge1);
-					edge2 = (new Long(current.id)).toString() + " " + (new Long(last.id)).toString();
-					edgesAlreadyAdded.add(edge2);
-
-					DefaultWeightedEdge weightedEdge = weightedGraph.getEdge(new Long(last.id), new Long(current.id));
-					weight = plainDistance(last, current);
-					weightedGraph.setEdgeWeight(weightedEdge, weight);
-
-					last = current;
+				if(maxDistance > tolerance){
+					keep[index] = true;
+					stack[top++] = first;
+					stack[top++] = index;
+					stack[top++] = index;
+					stack[top++] = last;
 				}
-				else
-				{
-					System.out.println("the edge has already been added to the graph");
-				}
-
-				last = current;
 			}
-		} //for(Long s : streets.keySet())
+			start = end;
+		}
 
-		return true;  // everything was completed successfully
+		Vector<Long> result = new Vector<Long>();
+		for(int i=0; i<n; i++){
+			if(keep[i]) result.add(street.elementAt(i));
+		}
+		return result;
+	}
+
+	private double segmentDistance(Landmark p, Landmark a, Landmark b){
+		// distance of p to the segment from a to b
+		double dx = b.x - a.x;
+		double dy = b.y - a.y;
+		double length = dx*dx + dy*dy;
+		double t = 0;
+		if(length > 0){
+			t = ((p.x - a.x)*dx + (p.y - a.y)*dy) / length;
+			t = Math.max(0, Math.min(1, t));
+		}
+		double x = p.x - (a.x + t*dx);
+		double y = p.y - (a.y + t*dy);
+		return Math.sqrt(x*x + y*y);
 	}
 
+	// snapshot of the current landmarks and streets in primitive arrays. with
+	// graph the weighted graph is added as adjacency if it has been prepared,
+	// only the binary road map and the api use it
+	RoadMap toRoadMap(boolean graph){
+		int count = landmarks.size();
+		long[] ids = new long[count];
+		double[] x = new double[count];
+		double[] y = new double[count];
+		byte[] flags = new byte[count];
+
+		int i = 0;
+		for(Landmark mark : landmarks.values()){
+			mark.index = i;
+			ids[i] = mark.id;
+			x[i] = mark.x;
+			y[i] = mark.y;
+			if(fixCompletenessAddedLandmarks.contains(mark.id)) flags[i] |= RoadMap.FLAG_CROSSING;
+			i++;
+		}
 
-	//// dot format
+		int points = 0;
+		for(Vector<Long> street : streets.values()) points += street.size();
 
-	private boolean exportDOT(String destfile){
-		destfile = destfile + "." + "SNA_DOT.dat";
-		// first open a File  
-		// the associate a FileWriter to it 
-		// keep appending data to Filewrtier stream 
-		// then close the FileWriter
-		// I do not know why but probably you do not need to close the file
+		long[] streetIds = new long[streets.size()];
+		int[] offsets = new int[streets.size() + 1];
+		int[] refs = new int[points];
 
-		File file = new File(destfile);
-		try{
-			FileWriter dotStream = new FileWriter(file, false); // false as no appending is to be done
-			// i have make weightedgraph available to this function
-			DOTExporter<Long, DefaultWeightedEdge> dotexport = new DOTExporter<Long, DefaultWeightedEdge>();
-			// create a new writer with a new file name
-			dotexport.export(dotStream, weightedGraph);
-		}catch(java.io.IOException error){
-			// whatever
-		}
-		System.out.println("graph exported in dot format to " + destfile );
-		return true;
+		int s = 0;
+		int p = 0;
+		for(Long sid : streets.keySet()){
+			streetIds[s] = sid;
+			for(Long mark : streets.get(sid)) refs[p++] = landmarks.get(mark).index;
+			offsets[++s] = p;
+		}
+
+		RoadMap map = new RoadMap(ids, x, y, streetIds, offsets, refs, flags);
+		if(graph && weightedGraph != null) addAdjacency(map);
+		if(projected){
+			double[] b = projection.bounds();
+			map.setProjection(projection.name(),
+					new double[]{ b[0], b[1], b[2], b[3], translatedX, translatedY });
+		}
+		return map;
 	}
 
-	//// naeto format
+	// add the weighted graph as symmetric adjacency, edges of landmarks that
+	// have been removed after the graph was prepared are left out. the edges
+	// are walked twice, to count the neighbours and to fill them in
+	private void addAdjacency(RoadMap map){
+		int count = map.landmarkCount();
+		int[] offsets = new int[count + 1];
+
+		for(DefaultWeightedEdge e : weightedGraph.edgeSet()){
+			Landmark source = landmarks.get(weightedGraph.getEdgeSource(e));
+			Landmark target = landmarks.get(weightedGraph.getEdgeTarget(e));
+			if(source == null || target == null) continue;
+			offsets[source.index + 1]++;
+			offsets[target.index + 1]++;
+		}
 
-	private boolean exportNAETO(String destfile){
-		destfile = destfile + "." + "SNA_NAETO.dat";
-		// first open a File  
-		// the associate a FileWriter to it 
-		// keep appending data to Filewrtier stream 
-		// then close the FileWriter
-		// I do not know why but probably you do not need to close the file
+		for(int i=0; i<count; i++) offsets[i+1] += offsets[i];
+
+		int[] fill = new int[count];
+		int[] targets = new int[offsets[count]];
+		double[] weights = new double[offsets[count]];
+		for(DefaultWeightedEdge e : weightedGraph.edgeSet()){
+			Landmark source = landmarks.get(weightedGraph.getEdgeSource(e));
+			Landmark target = landmarks.get(weightedGraph.getEdgeTarget(e));
+			if(source == null || target == null) continue;
+
+			int a = source.index;
+			int b = target.index;
+			double w = weightedGraph.getEdgeWeight(e);
+			targets[offsets[a] + fill[a]] = b;
+			weights[offsets[a] + fill[a]++] = w;
+			targets[offsets[b] + fill[b]] = a;
+			weights[offsets[b] + fill[b]++] = w;
+		}
 
-		File file = new File(destfile);
-		try{
-			FileWriter naetoStream = new FileWriter(file, false); // false as no appending is to be done
-			// i have make weightedgraph available to this function
-			NAETOExporter<Long, DefaultWeightedEdge> naetoexport = new NAETOExporter<Long, DefaultWeightedEdge>();
-			// create a new writer with a new file name
-			naetoexport.export(naetoStream, weightedGraph);
-		}catch(java.io.IOException error){
-			// whatever
-		}
-		System.out.println("graph exported in naeto format to " + destfile );
-		return true;
+		map.setAdjacency(offsets, targets, weights);
 	}
 
+	// replace the current landmarks and streets with the road map
+	void fromRoadMap(RoadMap map){
+		landmarks.clear();
+		streets.clear();
+		fixCompletenessAddedLandmarks.clear();
+
+		for(int i=0; i<map.landmarkCount(); i++){
+			Landmark lm = new Landmark();
+			lm.id = map.landmarkId(i);
+			lm.x = map.x(i);
+			lm.y = map.y(i);
+			lm.index = i;
+			landmarks.put(lm.id, lm);
+			if(map.isCrossing(i)) fixCompletenessAddedLandmarks.add(lm.id);
+		}
 
-	//GraphML
-	private boolean exportGraphML(String destfile){
-		destfile = destfile + "." + "SNA_GraphML.dat";
-		// first open a File  
-		// the associate a FileWriter to it 
-		// keep appending data to Filewrtier stream 
-		// then close the FileWriter
-		// I do not know why but probably you do not need to close the file
+		for(int s=0; s<map.streetCount(); s++){
+			Vector<Long> street = new Vector<Long>(map.streetLength(s));
+			for(int i=0; i<map.streetLength(s); i++)
+				street.add(map.landmarkId(map.streetLandmark(s, i)));
+			streets.put(map.streetId(s), street);
+		}
 
-		File file = new File(destfile);
-		try{
-			FileWriter graphmlStream = new FileWriter(file, false); // false as no appending is to be done
-			// i have make weightedgraph available to this function
-			GraphMLExporter<Long, DefaultWeightedEdge> graphmlexport = new GraphMLExporter<Long, DefaultWeightedEdge>();
-			// create a new writer with a new file name
-			graphmlexport.export(graphmlStream, weightedGraph);
-		}catch(java.io.IOException error){
-			// whatever
-		}catch (TransformerConfigurationException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (SAXException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		// landmarks projected from osm keep their projection for later updates
+		projected = map.hasProjection();
+		translatedX = 0;
+		translatedY = 0;
+		if(projected){
+			double[] b = map.projectionBounds;
+			projection = Projection.forName(map.projectionName());
+			projection.setup(b[0], b[1], b[2], b[3]);
+			translatedX = b[4];
+			translatedY = b[5];
 		}
-		System.out.println("graph exported in GraphML format to " + destfile );
-		return true;
 	}
 
+	private boolean readBinary(String filename){
+		log.println("reading in binary road map ...");
 
-	// this function is to remove edges with very small weights
-	// they are a result of edges being added more than once or
-	// edges adding due to floating point comparision error 
-	// while fixCompleteness
-	private boolean removeBogusEdges()
-	{
-		System.out.println(" ");
-		// ConcurrentModificationException occurs because i have a iterator iterating through
-		//                                 the edgeSet and i'm modifing it at the same time
-		//                                 this is unacceptable
-		// So make a list of these edge while iterating and then remove them from the graph
-		ArrayList<DefaultWeightedEdge> removeEdge = new ArrayList<DefaultWeightedEdge>();
-		for (DefaultWeightedEdge e : weightedGraph.edgeSet()) 
-		{
-			double weight = weightedGraph.getEdgeWeight(e);
-			if(Math.abs(weight - 1.0 ) < 0.0001 || weight <= 1.0E-09)
-			{
-				System.out.println("Edge with small weight : " + weight);
-				removeEdge.add(e);
+		try {
+			File file = new File(filename);
+			if(!file.exists()){
+				log.println("binary file " + filename + " does not exist");
+				return false;
 			}
-			//remove edges in the List
+			fromRoadMap(RoadMapFile.read(file));
+		} catch (IOException e) {
+			log.println("reading binary file failed: " + e.getLocalizedMessage());
+			e.printStackTrace(log);
+			return false;
 		}
 
-		int size = weightedGraph.edgeSet().size();
-		System.out.println("size of the graph before removing edges : " + size);
-		size = removeEdge.size();
-		System.out.println("total number of unnecessary edges : " + size);
+		log.println("binary road map has " + streets.size() + " streets and "
+				+ landmarks.size() + " landmarks");
+		return true;
+	}
+
+	private boolean readWkb(String filename){
+		log.println("reading in wkb format ...");
 
-		for(DefaultWeightedEdge edge : removeEdge)
-		{
-			// checking whether edge has been successfully removed
-			weightedGraph.removeEdge(edge);
-			if(!weightedGraph.containsEdge(edge))
-				System.out.println("edge successfully removed");
-			else
-				System.out.println("failure in removing the edge ");
+		try {
+			File file = new File(filename);
+			if(!file.exists()){
+				log.println("wkb file " + filename + " does not exist");
+				return false;
+			}
+			fromRoadMap(WkbFormat.read(file, epsilon));
+		} catch (IOException e) {
+			log.println("reading wkb file failed: " + e.getLocalizedMessage());
+			e.printStackTrace(log);
+			return false;
 		}
 
-		size = weightedGraph.edgeSet().size();
-		System.out.println("size of the graph after removing edges : " + size);
-		// after the removal the graph may have some partitions so try and get the biggest partitions of these
-		return true;	
+		log.println("parsing wkb found " + streets.size() + " streets");
+		return true;
 	}
 
+	private boolean writeWkb(String wkbfile, boolean append){
+		log.println("writing wkb file ...");
+
+		try {
+			if(compress){
+				OutputStream stream = new ParallelGzipOutputStream(
+						new FileOutputStream(outputName(wkbfile), append));
+				try{
+					WkbFormat.write(toRoadMap(false), Channels.newChannel(stream));
+				}finally{
+					stream.close();
+				}
+			}else{
+				WkbFormat.write(toRoadMap(false), new File(wkbfile), append);
+			}
+		} catch (IOException e) {
+			log.println("writing wkb file failed: " + e.getLocalizedMessage());
+			e.printStackTrace(log);
+			return false;
+		}
+
+		log.println("writing wkb file done");
+		return true;
+	}
+
+	// write the map as wkb if the output file has the wkb extension, as wkt otherwise
+	private boolean writeMap(String destfile, boolean append){
+		if(destfile.toLowerCase().endsWith("." + WkbFormat.FILE_EXT))
+			return writeWkb(destfile, append);
+		return writeWkt(destfile, append);
+	}
+
+	private boolean writeBinary(String destfile){
+		destfile = destfile + "." + RoadMapFile.FILE_EXT;
+		log.println("writing binary road map ...");
+
+		try {
+			RoadMapFile.write(toRoadMap(true), new File(destfile));
+		} catch (IOException e) {
+			log.println("writing binary file failed: " + e.getLocalizedMessage());
+			e.printStackTrace(log);
+			return false;
+		}
+
+		log.println("binary road map written to " + destfile);
+		return true;
+	}
+
+	private boolean writeWkt(String wktfile, boolean append){
+		log.println("writing wkt file ...");
+
+		try {
+			WktWriter writer = new WktWriter(Osm2Wkt.precisonFloating);
+			if(compress){
+				// appending adds another gzip member, which is still a valid gzip file
+				OutputStream stream = new ParallelGzipOutputStream(
+						new FileOutputStream(outputName(wktfile), append));
+				try{
+					writer.write(toRoadMap(false), Channels.newChannel(stream), append);
+				}finally{
+					stream.close();
+				}
+			}else{
+				writer.write(toRoadMap(false), new File(wktfile), append);
+			}
+		} catch (IOException e) {
+			log.println("writing wkt file failed: " + e.getLocalizedMessage());
+			e.printStackTrace(log);
+			return false;
+		}
+
+		log.println("writing wkt file done");
+		return true;
+	}
+
+	// name of the file that is actually written for the given output file
+	String outputName(String file){
+		return compress ? file + ".gz" : file;
+	}
+
+	int landmarkCount(){
+		return landmarks.size();
+	}
+
+	int streetCount(){
+		return streets.size();
+	}
+
+	// runs a stage, with metrics its timings are recorded together with the
+	// size of the map after the stage
+	private boolean stage(String name, java.util.function.BooleanSupplier stage){
+		if(metrics == null) return stage.getAsBoolean();
+
+		StageMetrics.Stage running = metrics.begin(name);
+		boolean ok = false;
+		try{
+			ok = stage.getAsBoolean();
+			count("landmarks", landmarks.size());
+			count("streets", streets.size());
+		}finally{
+			running.end(ok);
+		}
+		return ok;
+	}
+
+	// adds to a counter of the running stage if metrics are recorded
+	private void count(String counter, long value){
+		if(metrics != null) metrics.count(counter, value);
+	}
+
+	private boolean PreparingWeightedGraph(){
+		log.println("Preparing weighted graph called");
+
+		// create a graph using JGraphT
+		weightedGraph = new WeightedPseudograph<Long, DefaultWeightedEdge>(DefaultWeightedEdge.class);
+		int numEdgesAdded = 0;
+		int numDuplicateEdges = 0;
+		int numBogusEdges = 0;
+		edgesAlreadyAdded.clear();
+
+		// add all landmarks as verteces
+		for(Long l : landmarks.keySet()){
+			Landmark lm = landmarks.get(l);
+			assert((long)l == lm.id);
+			weightedGraph.addVertex(lm.id);
+		}
+
+		// add all streets as edges between landmarks
+		for(Long s : streets.keySet()){
+			Vector<Long> marks = streets.get(s);
+			Landmark last = null;
+			Landmark current = null;
+
+			for(Long m : marks){
+				current = landmarks.get(m);
+				if(last == null){
+					last = current;
+					continue;
+				}
+
+				assert(weightedGraph.containsVertex(last.id) && 
+						weightedGraph.containsVertex(current.id));
+				// I hope adding edges more than once will not create any problem
+				// Yes it creates a lot of trouble ... 
+				// 1) the pseudograph implementation screws up the weight parameter
+				// 2) this is the not the graph we that we have obtained from osm data
+				//    osm data only gives you one edge between two points
+				//    For osm we have the specification of two joints which
+				//    form the end points of the edges and no specification 
+				//    of the edge between the two vertices is provided. So when 
+				//    we say we have and edge between two points it the the same 
+				//    edge how many ever times we say that and in what order we say that
+				if(!edgesAlreadyAdded.add(last.id, current.id))
+				{
+					numDuplicateEdges += 1;
+					last = current;
+					continue;
+				}
+
+				// edges with very small weights are a result of floating point
+				// comparison errors while fixCompleteness, never insert them
+				double weight = plainDistance(last, current);
+				if(isBogusWeight(weight))
+				{
+					numBogusEdges += 1;
+				}
+				else
+				{
+					// following two vertices are now connected by an edge
+					DefaultWeightedEdge weightedEdge = weightedGraph.addEdge(new Long(last.id), new Long(current.id));
+					weightedGraph.setEdgeWeight(weightedEdge, weight);
+					numEdgesAdded += 1;
+				}
+
+				last = current;
+			}
+		} //for(Long s : streets.keySet())
+
+		log.println("added " + numEdgesAdded + " edges to the weighted graph, skipped "
+				+ numDuplicateEdges + " edges that have already been added and "
+				+ numBogusEdges + " edges with bogus weight");
+		count("edges", numEdgesAdded);
+		count("duplicateEdges", numDuplicateEdges);
+		count("bogusEdges", numBogusEdges);
+		return true;  // everything was completed successfully
+	}
+
+
+	// collapse chains of landmarks with exactly two neighbours into single
+	// weighted edges. the weight of the new edge is the summed plainDistance
+	// of the collapsed edges. only the weighted graph used by the exporters is
+	// contracted, streets and landmarks keep the full geometry for the wkt output
+	private boolean contractWeightedGraph(){
+		log.println("contracting degree-2 landmarks in weighted graph ...");
+
+		int verticesBefore = weightedGraph.vertexSet().size();
+		int edgesBefore = weightedGraph.edgeSet().size();
+		int contracted = 0;
+
+		// copy the vertices, the vertex set changes while contracting
+		ArrayList<Long> vertices = new ArrayList<Long>(weightedGraph.vertexSet());
+
+		for(Long v : vertices){
+			if(weightedGraph.degreeOf(v) != 2) continue;
+
+			Iterator<DefaultWeightedEdge> iter = weightedGraph.edgesOf(v).iterator();
+			DefaultWeightedEdge e1 = iter.next();
+			DefaultWeightedEdge e2 = iter.next();
+			Long a = Graphs.getOppositeVertex(weightedGraph, e1, v);
+			Long b = Graphs.getOppositeVertex(weightedGraph, e2, v);
+
+			// keep loops and do not create parallel edges, the pseudograph
+			// would accept them but the exported graph should stay simple
+			if(a.equals(v) || b.equals(v) || a.equals(b)) continue;
+			if(weightedGraph.containsEdge(a, b)) continue;
+
+			double weight = weightedGraph.getEdgeWeight(e1) + weightedGraph.getEdgeWeight(e2);
+			weight = Osm2Wkt.round(weight, Osm2Wkt.precisonFloating);
+
+			weightedGraph.removeVertex(v); // removes e1 and e2 as well
+			DefaultWeightedEdge edge = weightedGraph.addEdge(a, b);
+			weightedGraph.setEdgeWeight(edge, weight);
+			contracted++;
+		}
+
+		log.println("contracted " + contracted + " landmarks. weighted graph reduced from "
+				+ verticesBefore + " to " + weightedGraph.vertexSet().size() + " vertices and from "
+				+ edgesBefore + " to " + weightedGraph.edgeSet().size() + " edges");
+		count("contractedLandmarks", contracted);
+		return true;
+	}
+
+	//// graph exports
+
+	// write the weighted graph in the given formats with one traversal, see
+	// ExportEngine. vertices are numbered in landmark order, landmarks removed
+	// after the graph was prepared are left out like in the binary road map
+	private boolean exportGraph(String destfile, List<String> formats){
+		ExportEngine engine = new ExportEngine(destfile, compress, Osm2Wkt.precisonFloating, log);
+		engine.start(formats);
+		boolean finished = false;
+		try{
+			int vertex = 0;
+			for(Landmark mark : landmarks.values()){
+				if(!weightedGraph.containsVertex(mark.id)) continue;
+				mark.index = vertex++;
+				engine.addVertex(mark.x, mark.y);
+			}
+
+			for(DefaultWeightedEdge e : weightedGraph.edgeSet()){
+				Landmark source = landmarks.get(weightedGraph.getEdgeSource(e));
+				Landmark target = landmarks.get(weightedGraph.getEdgeTarget(e));
+				if(source == null || target == null) continue;
+				engine.addEdge(source.index, target.index, weightedGraph.getEdgeWeight(e));
+			}
+
+			boolean ok = engine.finish();
+			finished = true;
+			return ok;
+		}catch(InterruptedException e){
+			log.println("exporting the graph was interrupted");
+			return false;
+		}finally{
+			// the writers would wait for the rest of the graph forever
+			if(!finished) engine.abort();
+		}
+	}
+
+
+	// edges with very small weights are a result of edges being added more
+	// than once or edges adding due to floating point comparision error
+	// while fixCompleteness
+	private static boolean isBogusWeight(double weight){
+		return Math.abs(weight - 1.0 ) < 0.0001 || weight <= 1.0E-09;
+	}
+
+
+	// the loading and cleanup stages shared by all input formats. their results
+	// are kept in the stage cache, a re-run resumes from the latest valid entry
+	private final static String[] CACHED_STAGES = { "load", "repair", "simplify" };
+
+	private boolean prepareMap(String file, int translateX, int translateY){
+		String filelower = file.toLowerCase();
+		boolean osm = filelower.endsWith(FILE_EXT_OSM);
+
+		// the map state is taken after the repair, so do not resume after it
+		String[] keys = stageKeys(file, osm);
+		int done = keys == null ? 0 : resumeFromCache(keys, stateFile == null ? CACHED_STAGES.length : 2);
+		count("cachedStages", done);
+
+		// without cache the translation is done while projecting osm coordinates,
+		// cached results and map states are always stored untranslated
+		boolean fused = osm && keys == null && stateFile == null;
+
+		if(done < 1){
+			if(osm && pipeline){
+				if(!stage("readOsmPipelined", () -> readOsmPipelined(file, fused ? translateX : 0, fused ? translateY : 0)))	return false;
+			}else if(osm){
+				if(!stage("readOsm", () -> readOsm(file))) 						return false;
+				if(!stage("transformCoordinates", () -> transformCoordinates(fused ? translateX : 0, fused ? translateY : 0)))	return false;
+			}else if(filelower.endsWith(FILE_EXT_WKT)){
+				if(!stage("readWkt", () -> readWkt(file))) 						return false;
+			}else if(filelower.endsWith(WkbFormat.FILE_EXT)){
+				if(!stage("readWkb", () -> readWkb(file))) 						return false;
+			}else{
+				if(!stage("readBinary", () -> readBinary(file))) 					return false;
+			}
+			storeInCache(keys, 0);
+		}
+		if(done < 2){
+			// this is where( simplifyGraph ) the graph is constructed 
+			// so you can create a weighted graph here and see if we get weird edges
+			// that is edges with very small weights or edges with weight of 1 
+			// also calculate the number of nodes and edges in the graph at this point
+			if(!stage("fixCompleteness", () -> fixCompleteness())) 						return false;
+			storeInCache(keys, 1);
+		}
+		if(stateFile != null && !stage("writeState", () -> writeState(stateFile)))	return false;
+		if(done < 3){
+			if(!stage("simplifyModel", () -> simplifyModel(true))) 					return false;
+			storeInCache(keys, 2);
+		}
+
+		if(!fused && !stage("translate", () -> translate(translateX, translateY)))	return false;
+		return true;
+	}
+
+	// cache keys of the cached stages or null if the cache is not used
+	private String[] stageKeys(String file, boolean osm){
+		if(stageCache == null) return null;
+
+		String inputHash;
+		try {
+			inputHash = StageCache.hashFile(new File(file));
+		} catch (IOException e) {
+			log.println("hashing input for the stage cache failed, not using the cache: "
+					+ e.getLocalizedMessage());
+			return null;
+		}
+
+		String options = "input=" + file.substring(file.lastIndexOf('.') + 1).toLowerCase()
+			+ ";projection=" + (osm ? projection.name() : "")
+			+ ";pipeline=" + (osm && pipeline)
+			+ ";epsilon=" + epsilon + ";precision=" + precisonFloating;
+
+		return new String[]{
+			stageCache.key(inputHash, options, CACHED_STAGES[0]),
+			stageCache.key(inputHash, options + repairOptions(), CACHED_STAGES[1]),
+			stageCache.key(inputHash, options + repairOptions(), CACHED_STAGES[2])
+		};
+	}
+
+	private String repairOptions(){
+		// tiled repairs may round crossings slightly differently
+		return ";repair=" + repairCrossings + (repairCrossings && tileSize > 0 ? ";tiles=" + tileSize : "");
+	}
+
+	// load the latest cached stage before the given one, returns the number of stages done
+	private int resumeFromCache(String[] keys, int before){
+		for(int i=before-1; i>=0; i--){
+			RoadMap map = stageCache.get(keys[i]);
+			if(map == null) continue;
+
+			fromRoadMap(map);
+			log.println("resuming after cached " + CACHED_STAGES[i] + " stage with "
+					+ streets.size() + " streets and " + landmarks.size() + " landmarks");
+			return i+1;
+		}
+		return 0;
+	}
+
+	private void storeInCache(String[] keys, int stage){
+		if(keys == null) return;
+		try {
+			stageCache.put(keys[stage], toRoadMap(false));
+		} catch (IOException e) {
+			log.println("storing " + CACHED_STAGES[stage] + " stage in cache failed: "
+					+ e.getLocalizedMessage());
+		}
+	}
+
+	//****************************************************************************
+	// incremental updates from osm change files
+
+	// the repaired map before partition removal, input for later updates
+	private boolean writeState(String statefile){
+		log.println("writing map state ...");
+
+		try {
+			// replace an existing state only after the new one is complete
+			File temp = new File(statefile + ".tmp");
+			RoadMapFile.write(toRoadMap(false), temp);
+			Files.move(temp.toPath(), new File(statefile).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			log.println("writing map state failed: " + e.getLocalizedMessage());
+			e.printStackTrace(log);
+			return false;
+		}
+
+		log.println("map state written to " + statefile);
+		return true;
+	}
+
+	// apply the node and way changes of an osc file to a map state. only the
+	// streets touched by the changes are checked for crossings again
+	private boolean applyChanges(String filename){
+		log.println("reading in osm changes ...");
+
+		if(!projected){
+			log.println("map state has no osm projection, write it with -state from an osm file");
+			return false;
+		}
+
+		// changes in document order, the last action on an element wins
+		LinkedHashMap<Long,double[]> nodes = new LinkedHashMap<Long,double[]>();
+		HashSet<Long> deletedNodes = new HashSet<Long>();
+		LinkedHashMap<Long,Vector<Long>> ways = new LinkedHashMap<Long,Vector<Long>>();
+		HashSet<Long> deletedWays = new HashSet<Long>();
+
+		try {
+			File file = new File(filename);
+			if(!file.exists()){
+				log.println("osc file " + filename + " does not exist");
+				return false;
+			}
+
+			DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+			DocumentBuilder db = dbf.newDocumentBuilder();
+			Document doc = db.parse(file);
+
+			if(! doc.getDocumentElement().getNodeName().equals(XML_TAG_OSMCHANGE)){
+				log.println("invalid osc file, root element is " 
+						+ doc.getDocumentElement().getNodeName()
+						+ " but should be " + XML_TAG_OSMCHANGE);
+				return false;
+			}
+
+			for(Node action = doc.getDocumentElement().getFirstChild(); action != null; action = action.getNextSibling()){
+				if( action.getNodeType() != Node.ELEMENT_NODE ) continue;
+				String name = action.getNodeName();
+				if(!name.equals(XML_TAG_CREATE) && !name.equals(XML_TAG_MODIFY) && !name.equals(XML_TAG_DELETE)) continue;
+				boolean delete = name.equals(XML_TAG_DELETE);
+
+				for(Node item = action.getFirstChild(); item != null; item = item.getNextSibling()){
+					if( item.getNodeType() != Node.ELEMENT_NODE ) continue;
+					Element element = (Element)item;
+
+					Attr idAttr = element.getAttributeNode(XML_TAG_ID);
+					if(idAttr == null){
+						log.println("missing attribute in changed " + item.getNodeName());
+						continue;
+					}
+					Long id = Long.valueOf(idAttr.getValue());
+
+					if(item.getNodeName().equals(XML_TAG_NODE)){
+						if(delete){
+							nodes.remove(id);
+							deletedNodes.add(id);
+							continue;
+						}
+
+						Attr idLat = element.getAttributeNode(XML_TAG_LAT);
+						Attr idLon = element.getAttributeNode(XML_TAG_LON);
+						if(idLat == null || idLon == null){
+							log.println("missing attribute in changed landmark " + id);
+							continue;
+						}
+						deletedNodes.remove(id);
+						nodes.put(id, new double[]{ Double.valueOf(idLat.getValue()), Double.valueOf(idLon.getValue()) });
+
+					}else if(item.getNodeName().equals(XML_TAG_WAY)){
+						if(delete){
+							ways.remove(id);
+							deletedWays.add(id);
+							continue;
+						}
+
+						Vector<Long> streetLandmarks = new Vector<Long>();
+						for(Node nd = item.getFirstChild(); nd != null; nd = nd.getNextSibling()){
+							if( nd.getNodeType() != Node.ELEMENT_NODE ) continue;
+							if( !nd.getNodeName().equals(XML_TAG_ND) ) continue;
+
+							Attr refAttr = ((Element)nd).getAttributeNode(XML_TAG_REF);
+							if(refAttr == null){
+								log.println("missing attribute in changed street " + id);
+								continue;
+							}
+							streetLandmarks.add(Long.valueOf(refAttr.getValue()));
+						}
+						deletedWays.remove(id);
+						ways.put(id, streetLandmarks);
+					}
+				}
+			}
+
+		} catch (Exception e) {
+			log.println("reading osc file failed: " + e.getLocalizedMessage());
+			e.printStackTrace(log);
+			return false;
+		}
+
+		log.println("osc changes " + nodes.size() + " and deletes " + deletedNodes.size()
+				+ " landmarks, changes " + ways.size() + " and deletes " + deletedWays.size() + " streets");
+
+		// crossings got free ids when they were inserted, osm may have used such
+		// an id for a node since then. these crossings move to new ids
+		HashMap<Long,Landmark> renamed = new HashMap<Long,Landmark>();
+		for(Long id : nodes.keySet()){
+			if(!fixCompletenessAddedLandmarks.remove(id)) continue;
+			Landmark crossing = landmarks.remove(id);
+			if(crossing != null) renamed.put(id, crossing);
+		}
+		long freeId = landmarks.size();
+		for(Landmark crossing : renamed.values()){
+			while(freeId <= 0 || landmarks.containsKey(freeId) || nodes.containsKey(freeId)) freeId++;
+			crossing.id = freeId;
+			landmarks.put(crossing.id, crossing);
+			fixCompletenessAddedLandmarks.add(crossing.id);
+		}
+
+		// project the changed landmarks the same way as the map state
+		int count = nodes.size();
+		double[] lat = new double[count];
+		double[] lon = new double[count];
+		double[] x = new double[count];
+		double[] y = new double[count];
+		double[] bounds = projection.bounds();
+		int outside = 0;
+
+		int i = 0;
+		for(double[] node : nodes.values()){
+			lat[i] = node[0];
+			lon[i] = node[1];
+			if(lat[i] < bounds[0] || lat[i] > bounds[1] || lon[i] < bounds[2] || lon[i] > bounds[3]) outside++;
+			i++;
+		}
+		projection.projectAll(lat, lon, x, y, count, translatedX, translatedY);
+
+		if(outside > 0)
+			log.println(outside + " changed landmarks are outside the bounds of the map state."
+					+ " they are projected relative to its origin");
+
+		HashSet<Long> moved = new HashSet<Long>();
+		i = 0;
+		for(Long id : nodes.keySet()){
+			Landmark lm = landmarks.get(id);
+			if(lm == null){
+				lm = new Landmark();
+				lm.id = id;
+				landmarks.put(lm.id, lm);
+			}else if(lm.x != x[i] || lm.y != y[i]){
+				moved.add(id);
+			}
+			lm.latitude = lat[i];
+			lm.longitude = lon[i];
+			lm.x = x[i];
+			lm.y = y[i];
+			i++;
+		}
+
+		// a deleted id that is used by a crossing belongs to a node outside the map
+		HashSet<Long> removed = new HashSet<Long>();
+		for(Long id : deletedNodes){
+			if(fixCompletenessAddedLandmarks.contains(id)) continue;
+			if(landmarks.remove(id) != null) removed.add(id);
+		}
+
+		// rename crossings and find the unchanged streets that use moved or removed landmarks
+		HashSet<Long> changed = new HashSet<Long>();
+		int droppedLandmarks = 0;
+		if(!renamed.isEmpty() || !moved.isEmpty() || !removed.isEmpty()){
+			for(Map.Entry<Long,Vector<Long>> entry : streets.entrySet()){
+				Vector<Long> street = entry.getValue();
+				for(int k=0; k<street.size(); k++){
+					Long mark = street.get(k);
+					if(renamed.containsKey(mark)){
+						street.set(k, renamed.get(mark).id);
+					}else if(moved.contains(mark)){
+						changed.add(entry.getKey());
+					}else if(removed.contains(mark)){
+						street.remove(k--);
+						changed.add(entry.getKey());
+						droppedLandmarks++;
+					}
+				}
+			}
+		}
+		if(droppedLandmarks > 0)
+			log.println("removed " + droppedLandmarks + " deleted landmarks from unchanged streets");
+
+		// the crossings on the old geometry of changed streets are checked again
+		HashSet<Long> crossings = new HashSet<Long>();
+		for(Long id : deletedWays){
+			Vector<Long> old = streets.remove(id);
+			if(old != null) crossings.addAll(old);
+			changed.remove(id);
+		}
+		for(Map.Entry<Long,Vector<Long>> way : ways.entrySet()){
+			Vector<Long> old;
+			if(way.getValue().isEmpty()){
+				log.println("found no landmark childs for street " + way.getKey());
+				old = streets.remove(way.getKey());
+				changed.remove(way.getKey());
+			}else{
+				old = streets.put(way.getKey(), way.getValue());
+				changed.add(way.getKey());
+			}
+			if(old != null) crossings.addAll(old);
+		}
+		for(Long id : changed){
+			Vector<Long> street = streets.get(id);
+			for(Long mark : street){
+				if(!landmarks.containsKey(mark)){
+					log.println("landmarks " + mark + " for changed street " + id + " not found");
+					return false;
+				}
+			}
+			crossings.addAll(street);
+			street.removeAll(fixCompletenessAddedLandmarks);
+		}
+		crossings.retainAll(fixCompletenessAddedLandmarks);
+
+		// crossings that now connect less than two streets are dropped, they lie
+		// on the remaining street so its geometry does not change
+		if(!crossings.isEmpty()){
+			HashMap<Long,Integer> usage = new HashMap<Long,Integer>();
+			for(Vector<Long> street : streets.values()){
+				for(Long mark : street){
+					if(crossings.contains(mark)) usage.merge(mark, 1, Integer::sum);
+				}
+			}
+			for(Iterator<Long> iter = crossings.iterator(); iter.hasNext(); ){
+				Integer used = usage.get(iter.next());
+				if(used != null && used > 1) iter.remove();
+			}
+			if(!crossings.isEmpty()){
+				for(Vector<Long> street : streets.values()) street.removeAll(crossings);
+				for(Long mark : crossings){
+					landmarks.remove(mark);
+					fixCompletenessAddedLandmarks.remove(mark);
+				}
+			}
+			log.println("removed " + crossings.size() + " crossing landmarks of changed streets");
+		}
+
+		log.println("map has " + streets.size() + " streets and " + landmarks.size()
+				+ " landmarks after applying the changes, " + changed.size() + " streets changed");
+
+		if(!repairCrossings || changed.isEmpty()) return true;
+		return repairChangedCrossings(changed);
+	}
+
+	// crossing repair restricted to the given streets. the other streets are
+	// only looked at within the bounding box of the changed ones
+	private final static double GRID_CELL_SIZE = 100; // meters
+
+	private boolean repairChangedCrossings(Set<Long> changed){
+		log.println("checking " + changed.size()
+				+ " changed streets for missing landmarks at crossings ...");
+
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for(Long id : changed){
+			for(Long mark : streets.get(id)){
+				Landmark lm = landmarks.get(mark);
+				minX = Math.min(minX, lm.x);
+				minY = Math.min(minY, lm.y);
+				maxX = Math.max(maxX, lm.x);
+				maxY = Math.max(maxY, lm.y);
+			}
+		}
+		minX -= epsilon;
+		minY -= epsilon;
+		maxX += epsilon;
+		maxY += epsilon;
+
+		// index the landmarks and street parts within the region
+		SegmentGrid grid = new SegmentGrid(GRID_CELL_SIZE);
+		for(Landmark lm : landmarks.values()){
+			if(lm.x < minX || lm.x > maxX || lm.y < minY || lm.y > maxY) continue;
+			grid.addPoint(lm.id, lm.x, lm.y);
+		}
+		int indexed = 0;
+		for(Map.Entry<Long,Vector<Long>> entry : streets.entrySet()){
+			Vector<Long> street = entry.getValue();
+			for(int k=1; k<street.size(); k++){
+				Landmark a = landmarks.get(street.get(k-1));
+				Landmark b = landmarks.get(street.get(k));
+				if(Math.max(a.x, b.x) < minX || Math.min(a.x, b.x) > maxX) continue;
+				if(Math.max(a.y, b.y) < minY || Math.min(a.y, b.y) > maxY) continue;
+				grid.add(new SegmentGrid.Segment(entry.getKey(), a.id, b.id, a.x, a.y, b.x, b.y));
+				indexed++;
+			}
+		}
+		log.println("indexed " + indexed + " street parts in region x from " + minX + " to " + maxX
+				+ ", y from " + minY + " to " + maxY);
+
+		boolean inserted;
+		long missingLandmarks = 0;
+		long candidates = 0;
+		long crossings = 0;
+
+		do{
+			inserted = false;
+
+			for(Long streetA : changed){
+				Vector<Long> streetPointsA = streets.get(streetA);
+
+				for(int indexA=1; indexA<streetPointsA.size() && !inserted; indexA++){
+					Landmark lastAL = landmarks.get(streetPointsA.get(indexA-1));
+					Landmark currentAL = landmarks.get(streetPointsA.get(indexA));
+
+					LinkedHashSet<SegmentGrid.Segment> parts = grid.query(
+							Math.min(lastAL.x, currentAL.x), Math.min(lastAL.y, currentAL.y),
+							Math.max(lastAL.x, currentAL.x), Math.max(lastAL.y, currentAL.y));
+
+					SegmentGrid.Segment partA = null;
+					for(SegmentGrid.Segment part : parts){
+						if(part.street == streetA && part.from == lastAL.id && part.to == currentAL.id) partA = part;
+					}
+
+					for(SegmentGrid.Segment partB : parts){
+						// don't check street with itself
+						if(partB.street == streetA) continue;
+
+						candidates++;
+						Landmark crossing = checkCrossing(lastAL, currentAL,
+								landmarks.get(partB.from), landmarks.get(partB.to), grid);
+						if(crossing == null) continue;
+						crossings++;
+
+						if(!streetPointsA.contains(crossing.id)){
+							streetPointsA.add(indexA, crossing.id);
+							splitSegment(grid, partA, crossing);
+							inserted = true;
+						}
+
+						Vector<Long> streetPointsB = streets.get(partB.street);
+						if(!streetPointsB.contains(crossing.id)){
+							for(int indexB=1; indexB<streetPointsB.size(); indexB++){
+								if(streetPointsB.get(indexB-1) == partB.from && streetPointsB.get(indexB) == partB.to){
+									streetPointsB.add(indexB, crossing.id);
+									break;
+								}
+							}
+							splitSegment(grid, partB, crossing);
+							inserted = true;
+						}
+
+						if(inserted){
+							missingLandmarks++;
+							break;
+						}
+					}
+				}
+
+				if(inserted) break;
+			}
+
+		}while(inserted);
+
+		log.println("inserted " + missingLandmarks 
+				+ " missing landmarks. currently have "
+				+ landmarks.size() + " landmarks");
+		count("candidatePairs", candidates);
+		count("crossingsFound", crossings);
+		count("crossingsInserted", missingLandmarks);
+		return true;
+	}
+
+	private void splitSegment(SegmentGrid grid, SegmentGrid.Segment segment, Landmark mark){
+		if(segment == null) return;
+		Landmark from = landmarks.get(segment.from);
+		Landmark to = landmarks.get(segment.to);
+		grid.remove(segment);
+		grid.add(new SegmentGrid.Segment(segment.street, from.id, mark.id, from.x, from.y, mark.x, mark.y));
+		grid.add(new SegmentGrid.Segment(segment.street, mark.id, to.id, mark.x, mark.y, to.x, to.y));
+	}
 
 	private static void printUsage(){
 		System.out.println("Usage\n" 
 				+ "\t generate+cleanup from osm: >> osm2wkt mapfile.osm" + "\n"
 				+ "\t cleanup from wkt         : >> osm2wkt mapfile.wkt" + "\n"
+				+ "\t cleanup from wkb         : >> osm2wkt mapfile.wkb" + "\n"
+				+ "\t cleanup from binary      : >> osm2wkt mapfile.o2wb" + "\n"
+				+ "\t update a map state       : >> osm2wkt -u changes.osc state.o2wb" + "\n"
+				+ "\t conversion server        : >> osm2wkt -server PORT" + "\n"
+				+ "\t convert many maps        : >> osm2wkt -batch DIR|LISTFILE" + "\n"
 				+ "\t options: " + "\n"
-				+ "\t \t -o outputfile - write output to given file" + "\n"
+				+ "\t \t -o outputfile - write output to given file, wkb if it ends with .wkb (output directory with -batch)" + "\n"
+				+ "\t \t -r y|n - repair missing landmarks at street crossings without asking" + "\n"
 				+ "\t \t -a - append to output file" + "\n"
 				+ "\t \t -t X Y - translate map by x=X and y=Y meters" + "\n"
+				+ "\t \t -c - contract degree-2 landmarks in the exported graphs" + "\n"
+				+ "\t \t -s TOL - simplify street geometry with tolerance TOL meters" + "\n"
+				+ "\t \t -p NAME - projection: haversine (default), equirect or utm" + "\n"
+				+ "\t \t -z - gzip compress the output files" + "\n"
+				+ "\t \t -b - also write the cleaned map in binary format (outputfile.o2wb)" + "\n"
+				+ "\t \t -nocache - bypass the stage cache" + "\n"
+				+ "\t \t -cachedir DIR - stage cache directory (default ~/.osm2wkt/cache)" + "\n"
+				+ "\t \t -cachesize MB - maximum size of the stage cache (default 1024)" + "\n"
+				+ "\t \t -state FILE - write the repaired map state for later updates to FILE" + "\n"
+				+ "\t \t -u FILE - apply the osm changes in FILE to the given map state" + "\n"
+				+ "\t \t -f FORMATS - also export the graph, comma separated list of dot, graphml, gml, matrix, naeto" + "\n"
+				+ "\t \t -tiles SIZE - repair crossings in parallel tiles of SIZE meters" + "\n"
+				+ "\t \t -pipeline - parse, project and index osm files in overlapping stages" + "\n"
+				+ "\t \t -metrics FILE - write the timings, allocations, peak heap and counters of the stages as json to FILE" + "\n"
+				+ "\t \t -j N - convert N maps at once with -batch (default one per cpu)" + "\n"
+				+ "\t \t -store TYPE - resolve the osm nodes through the heap or disk store, or by an external join (default auto)" + "\n"
 		);	
 	}
 
+	// checks the input file name, prints why it can not be converted
+	private static boolean canConvert(String file, String changefile){
+		String filelower = file.toLowerCase();
+		if(changefile != null){
+			if(filelower.endsWith(RoadMapFile.FILE_EXT)) return true;
+			System.out.println("updates need a map state in binary format, got " + filelower);
+			return false;
+		}
+		if(filelower.endsWith(FILE_EXT_OSM) || filelower.endsWith(FILE_EXT_WKT)
+				|| filelower.endsWith(WkbFormat.FILE_EXT) || filelower.endsWith(RoadMapFile.FILE_EXT)) return true;
+		System.out.println("unknown file extension in " + filelower);
+		return false;
+	}
+
+	// runs all stages on the input file and writes the results to destfile.
+	// the changes of changefile are applied to the map state in file if given
+	boolean convert(String file, String destfile, boolean append, int translateX, int translateY,
+			String changefile, List<String> formats){
+		if(!process(file, translateX, translateY, changefile))	return false;
+		//exporting the graph
+		if(!formats.isEmpty() && !stage("exportGraph", () -> exportGraph(destfile, formats)))	return false;
+		//done exporting now writing files 
+		if(!stage("writeMap", () -> writeMap(destfile, append)))			return false;
+		if(writeBinary && !stage("writeBinary", () -> writeBinary(destfile)))	return false;
+		return true;
+	}
+
+	// runs all stages on the input file, afterwards the cleaned map and its
+	// weighted graph are in streets, landmarks and weightedGraph
+	boolean process(String file, int translateX, int translateY, String changefile){
+		String filelower = file.toLowerCase();
+
+		if(changefile != null){
+
+			if(!stage("readBinary", () -> readBinary(file))) 					return false;
+			if(!stage("applyChanges", () -> applyChanges(changefile))) 			return false;
+			if(stateFile != null && !stage("writeState", () -> writeState(stateFile)))	return false;
+			if(!stage("simplifyModel", () -> simplifyModel(true)))				return false;
+			if(!stage("translate", () -> translate(translateX, translateY)))	return false;
+			if(!stage("simplifyGeometry", () -> simplifyGeometry(simplifyTolerance)))	return false;
+			if(!stage("PreparingWeightedGraph", () -> PreparingWeightedGraph())) 			return false;
+			if(!stage("simplifyModel", () -> simplifyModel(true)))				return false;
+			if(contractGraph && !stage("contractWeightedGraph", () -> contractWeightedGraph()))	return false;
+
+		}else if(filelower.endsWith(FILE_EXT_OSM)){
+
+			if(!prepareMap(file, translateX, translateY))	return false;
+			if(!stage("simplifyGeometry", () -> simplifyGeometry(simplifyTolerance)))	return false;
+			// just after this function gets completed i think the graph 
+			// is complete and we can make a pseudo graph out of it and
+			// export to a a format which is acceptable by a SNA software
+			// also one can input this graph to SNA libraries existing in java itself
+			if(!stage("PreparingWeightedGraph", () -> PreparingWeightedGraph())) 			return false;
+			if(!stage("simplifyModel", () -> simplifyModel(true)))				return false;
+			if(contractGraph && !stage("contractWeightedGraph", () -> contractWeightedGraph()))	return false;
+
+		}else if(filelower.endsWith(FILE_EXT_WKT) || filelower.endsWith(WkbFormat.FILE_EXT)
+				|| filelower.endsWith(RoadMapFile.FILE_EXT)){
+
+			if(!prepareMap(file, translateX, translateY))	return false;
+			// try and prepare a weighted graph right now
+			// and see if there are any bogus edges
+			// then clear the graph removeAllEdges removeAllVertices
+			// and later whenver you want reconstruct the graph
+			if(!stage("simplifyGeometry", () -> simplifyGeometry(simplifyTolerance)))	return false;
+			if(!stage("PreparingWeightedGraph", () -> PreparingWeightedGraph())) 	        return false;
+			// fixCompleteness
+			if(!stage("fixCompleteness", () -> fixCompleteness()))  				return false;
+			// simplifyModel
+			if(!stage("simplifyModel", () -> simplifyModel(true)))				return false;
+			if(contractGraph && !stage("contractWeightedGraph", () -> contractWeightedGraph()))	return false;
+		}else{
+			return false;
+		}
+
+		return true;
+	}
+
+	// a converter with the same options, without any map state
+	Osm2Wkt copyOptions(){
+		Osm2Wkt copy = new Osm2Wkt();
+		copy.contractGraph = contractGraph;
+		copy.simplifyTolerance = simplifyTolerance;
+		copy.projection = Projection.forName(projection.name());
+		copy.compress = compress;
+		copy.writeBinary = writeBinary;
+		copy.repairCrossings = repairCrossings;
+		copy.tileSize = tileSize;
+		copy.landmarkStore = landmarkStore;
+		copy.pipeline = pipeline;
+		copy.stageCache = stageCache;
+		copy.stateFile = stateFile;
+		copy.epsilon = epsilon;
+		copy.log = log;
+		return copy;
+	}
+
 	public static void main(String[] args) {
 		
 		System.out.println("osm2wkt v1.2.0- convert " +
 		"openstreetmap to wkt - Christoph P. Mayer - mayer@kit.edu");
-		if(args.length < 1 || args.length > 7){
+		if(args.length < 1){
 			printUsage();
 			return;
 		}
 
 		boolean append = false;
+		boolean contract = false;
+		double tolerance = 0;
+		String projection = Projection.HAVERSINE;
+		boolean compress = false;
+		boolean binary = false;
+		boolean cache = true;
+		File cachedir = StageCache.defaultDirectory();
+		long cachesize = 1024;
+		String statefile = null;
+		String changefile = null;
+		List<String> formats = new ArrayList<String>();
+		double tiles = 0;
+		String store = LandmarkStore.AUTO;
+		boolean pipeline = false;
+		int server = -1;
+		String repair = null;
+		boolean batch = false;
+		String metricsfile = null;
+		int threads = Runtime.getRuntime().availableProcessors();
 		int translateX = 0;
 		int translateY = 0;
 		String file = "";
@@ -1043,6 +2442,82 @@ public class Osm2Wkt {
 				if(args[i].equals("-o")){
 					destfile = args[i+1];
 				}
+				if(args[i].equals("-c")){
+					contract = true;
+				}
+				if(args[i].equals("-s")){
+					tolerance = Double.parseDouble(args[i+1]);
+				}
+				if(args[i].equals("-p")){
+					projection = args[i+1];
+				}
+				if(args[i].equals("-z")){
+					compress = true;
+				}
+				if(args[i].equals("-b")){
+					binary = true;
+				}
+				if(args[i].equals("-nocache")){
+					cache = false;
+				}
+				if(args[i].equals("-cachedir")){
+					cachedir = new File(args[i+1]);
+				}
+				if(args[i].equals("-cachesize")){
+					cachesize = Long.parseLong(args[i+1]);
+				}
+				if(args[i].equals("-state")){
+					statefile = args[i+1];
+				}
+				if(args[i].equals("-u")){
+					changefile = args[i+1];
+				}
+				if(args[i].equals("-tiles")){
+					tiles = Double.parseDouble(args[i+1]);
+				}
+				if(args[i].equals("-server")){
+					server = Integer.parseInt(args[i+1]);
+				}
+				if(args[i].equals("-pipeline")){
+					pipeline = true;
+				}
+				if(args[i].equals("-r")){
+					repair = args[i+1].toLowerCase();
+					if(!repair.equals("y") && !repair.equals("n")){
+						System.out.println("-r has to be y or n");
+						printUsage();
+						return;
+					}
+				}
+				if(args[i].equals("-batch")){
+					batch = true;
+				}
+				if(args[i].equals("-metrics")){
+					metricsfile = args[i+1];
+				}
+				if(args[i].equals("-j")){
+					threads = Integer.parseInt(args[i+1]);
+					if(threads < 1) throw new IllegalArgumentException("no workers");
+				}
+				if(args[i].equals("-store")){
+					store = args[i+1].toLowerCase();
+					if(!store.equals(LandmarkStore.AUTO) && !store.equals(LandmarkStore.HEAP)
+							&& !store.equals(LandmarkStore.DISK) && !store.equals(ExternalJoin.NAME)){
+						System.out.println("unknown landmark store " + store);
+						printUsage();
+						return;
+					}
+				}
+				if(args[i].equals("-f")){
+					for(String format : args[i+1].toLowerCase().split(",")){
+						if(!ExportEngine.FORMATS.contains(format)){
+							System.out.println("unknown export format " + format);
+							printUsage();
+							return;
+						}
+						if(!formats.contains(format)) formats.add(format);
+					}
+				}
 			}
 		}catch(Exception e){
 			System.out.println("parsing command line arguments failed");
@@ -1050,67 +2525,84 @@ public class Osm2Wkt {
 			return;
 		}
 
-		if(destfile.length() == 0) destfile = file + "." + FILE_EXT_WKT;
+		if(destfile.length() == 0 && !batch) destfile = file + "." + FILE_EXT_WKT;
 		Osm2Wkt obj = new Osm2Wkt();
-		String filelower = file.toLowerCase();
+		obj.contractGraph = contract;
+		obj.simplifyTolerance = tolerance;
+		obj.compress = compress;
+		obj.writeBinary = binary;
+		if(cache) obj.stageCache = new StageCache(cachedir, cachesize * 1024 * 1024);
+		obj.stateFile = statefile;
+		obj.tileSize = tiles;
+		obj.landmarkStore = store;
+		obj.pipeline = pipeline;
+		try{
+			obj.projection = Projection.forName(projection);
+		}catch(IllegalArgumentException e){
+			System.out.println(e.getMessage());
+			printUsage();
+			return;
+		}
+		if(server >= 0){
+			// defaults of the repair and translation parameters of the requests
+			obj.repairCrossings = repair != null && repair.equals("y");
+			try{
+				new ConversionServer(server, obj, translateX, translateY).start();
+			}catch(IOException e){
+				System.out.println("starting the conversion server failed: " + e.getLocalizedMessage());
+			}
+			return;
+		}
 
-		System.out.println("converting file " + file + " ...");
+		if(batch){
+			// the maps would share one state file
+			if(statefile != null || changefile != null){
+				System.out.println("-state and -u can not be used with -batch");
+				printUsage();
+				return;
+			}
+			List<String> maps;
+			try{
+				maps = BatchConverter.listMaps(new File(file));
+			}catch(IOException e){
+				System.out.println("reading the maps to convert failed: " + e.getLocalizedMessage());
+				return;
+			}
+			if(destfile.length() > 0 && !new File(destfile).isDirectory()){
+				System.out.println("output directory " + destfile + " does not exist");
+				return;
+			}
+			obj.repairCrossings = repair != null ? repair.equals("y") : askRepairCrossings();
+			try{
+				new BatchConverter(obj, threads).run(maps, destfile.length() > 0 ? destfile : null,
+						translateX, translateY, formats);
+			}catch(InterruptedException e){
+				System.out.println("batch conversion interrupted");
+			}
+			return;
+		}
 
-		if(filelower.endsWith(FILE_EXT_OSM)){
+		System.out.println("converting file " + file + " ...");
 
-			if(!obj.readOsm(file)) 						return;
-			if(!obj.transformCoordinates()) 			return;
-			// this is where( simplifyGraph ) the graph is constructed 
-			// so you can create a weighted graph here and see if we get weird edges
-			// that is edges with very small weights or edges with weight of 1 
-			// also calculate the number of nodes and edges in the graph at this point
-			if(!obj.fixCompleteness()) 					return;
-			if(!obj.simplifyModel(true)) 				return; 
-			if(!obj.translate(translateX, translateY)) 	return;
-			// just after this function gets completed i think the graph 
-			// is complete and we can make a pseudo graph out of it and
-			// export to a a format which is acceptable by a SNA software
-			// also one can input this graph to SNA libraries existing in java itself
-			if(!obj.PreparingWeightedGraph()) 			return;
-			if(!obj.removeBogusEdges())					return;
-			if(!obj.simplifyModel(true))				return;
-			//if(!obj.exportDOT(destfile)) 	return;
-			//if(!obj.exportNAETO(destfile)) 	return;
-			//if(!obj.exportGml(destfile)) 	return;
-			//if(!obj.exportGraphML(destfile)) 	return;
-			//if(!obj.exportMatrix(destfile)) 	return;
-			if(!obj.writeWkt(destfile, append))			return;
-
-		}else if(filelower.endsWith(FILE_EXT_WKT)){
-
-			if(!obj.readWkt(file)) 						return;
-			// try and prepare a weighted graph right now
-			// and see if there are any bogus edges
-			// then clear the graph removeAllEdges removeAllVertices
-			// and later whenver you want reconstruct the graph
-			if(!obj.fixCompleteness()) 					return;
-			if(!obj.simplifyModel(true)) 				return;
-			if(!obj.translate(translateX, translateY)) 	return;
-			if(!obj.PreparingWeightedGraph()) 	        return;
-			if(!obj.removeBogusEdges())					return;
-			// fixCompleteness
-			if(!obj.fixCompleteness())  				return;
-			// simplifyModel
-			if(!obj.simplifyModel(true))				return;
-			//exporting the graph
-			//if(!obj.exportDOT(destfile)) 	return;
-			//if(!obj.exportNAETO(destfile)) 	return;
-			//if(!obj.exportGraphML(destfile)) 	return;
-			//if(!obj.exportGml(destfile)) 	return;
-			//if(!obj.exportMatrix(destfile)) 	return;
-			//done exporting now writing files 
-			if(!obj.writeWkt(destfile, append))			return;
-		}else{
-			System.out.println("unknown file extension in " + filelower);
-			return;
+		if(!canConvert(file, changefile))	return;
+		obj.repairCrossings = repair != null ? repair.equals("y") : askRepairCrossings();
+
+		// the stages are recorded for the report or a running flight recording,
+		// otherwise the allocation tracking of the threads is not enabled
+		if(metricsfile != null || StageMetrics.recording()) obj.metrics = new StageMetrics();
+		boolean converted = obj.convert(file, destfile, append, translateX, translateY, changefile, formats);
+		if(obj.metrics != null) obj.metrics.finish(converted);
+		if(metricsfile != null){
+			try{
+				obj.metrics.write(new File(metricsfile), file);
+				System.out.println("written metrics to " + metricsfile);
+			}catch(IOException e){
+				System.out.println("writing metrics failed: " + e.getLocalizedMessage());
+			}
 		}
+		if(!converted)	return;
 
-		System.out.println("written to new file " + destfile);
+		System.out.println("written to new file " + obj.outputName(destfile));
 		System.out.println("done!");
 	}
 
@@ -0,0 +1,239 @@
+package osm2wkt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// pipelined reading of openstreetmap xml. the parser, the projection and the
+// consumer run in their own threads and hand batches of nodes and ways through
+// bounded queues, so parsing, projecting and building the map overlap and a
+// slow stage only holds back the others when its queue is full.
+//
+// nodes can only be projected while reading if the file starts with a bounds
+// element, the projection is then set up for these bounds. otherwise the node
+// batches are passed on unprojected
+public class OsmPipeline {
+
+	private final static int BATCH_SIZE = 4096;
+	private final static int QUEUE_LENGTH = 16;
+
+	// nodes or ways, never changed after being queued
+	public final static class Batch {
+		public int size;	// nodes or ways
+		public final long[] ids;
+		// nodes, x and y are null if the nodes are not projected
+		public final double[] latitudes, longitudes;
+		public double[] x, y;
+		// ways, the landmarks of way i are refs[offsets[i]] to refs[offsets[i+1]-1]
+		public final int[] offsets;
+		public long[] refs;
+
+		Batch(boolean ways){
+			this.ids = new long[BATCH_SIZE];
+			this.latitudes = ways ? null : new double[BATCH_SIZE];
+			this.longitudes = ways ? null : new double[BATCH_SIZE];
+			this.offsets = ways ? new int[BATCH_SIZE + 1] : null;
+			this.refs = ways ? new long[BATCH_SIZE * 8] : null;
+		}
+
+		public boolean ways(){
+			return offsets != null;
+		}
+	}
+
+	private final static Batch END = new Batch(true);
+
+	public interface Consumer {
+		void nodes(Batch batch) throws IOException;
+		void ways(Batch batch) throws IOException;
+	}
+
+	private final Projection projection;
+	private final double dx, dy;
+	private final PrintStream log;
+
+	private final BlockingQueue<Batch> parsed = new ArrayBlockingQueue<Batch>(QUEUE_LENGTH);
+	private final BlockingQueue<Batch> projected = new ArrayBlockingQueue<Batch>(QUEUE_LENGTH);
+
+	// written by the parser thread, read after it finished
+	private final double[] bounds = {90, -90, 180, -180};
+	private long nodeCount = 0;
+	private volatile boolean projecting = false;
+	private volatile Exception error = null;
+
+	// nodes are projected with the translation (dx,dy)
+	public OsmPipeline(Projection projection, double dx, double dy){
+		this(projection, dx, dy, System.out);
+	}
+
+	public OsmPipeline(Projection projection, double dx, double dy, PrintStream log){
+		this.projection = projection;
+		this.dx = dx;
+		this.dy = dy;
+		this.log = log;
+	}
+
+	// true if the nodes were projected within the bounds element of the file
+	public boolean projected(){
+		return projecting;
+	}
+
+	// latitude and longitude bounds of all nodes, in the order of Projection.bounds
+	public double[] nodeBounds(){
+		return bounds;
+	}
+
+	public long nodeCount(){
+		return nodeCount;
+	}
+
+	// reads the file, the consumer is called on the calling thread
+	public void run(final File file, Consumer consumer) throws IOException, InterruptedException {
+		Thread parser = new Thread("pipeline-parse"){
+			public void run(){
+				boolean done = false;
+				try{
+					Parser handler = new Parser();
+					OsmReader.read(file, handler, log);
+					handler.finish();
+					done = true;
+				}catch(InterruptedIOException e){
+					// the consumer gave up
+				}catch(Exception e){
+					error = e;
+				}finally{
+					end(parsed, done);
+				}
+			}
+		};
+		Thread projector = new Thread("pipeline-project"){
+			public void run(){
+				boolean done = false;
+				try{
+					Batch batch;
+					while((batch = parsed.take()) != END){
+						if(!batch.ways() && projecting){
+							batch.x = new double[batch.size];
+							batch.y = new double[batch.size];
+							projection.projectAll(batch.latitudes, batch.longitudes, batch.x, batch.y,
+									batch.size, dx, dy);
+						}
+						projected.put(batch);
+					}
+					done = true;
+				}catch(InterruptedException e){
+					// the consumer gave up
+				}catch(RuntimeException e){
+					error = e;
+				}finally{
+					end(projected, done);
+				}
+			}
+		};
+		parser.start();
+		projector.start();
+
+		try{
+			Batch batch;
+			while((batch = projected.take()) != END){
+				if(batch.ways()) consumer.ways(batch);
+				else consumer.nodes(batch);
+			}
+		}finally{
+			parser.interrupt();
+			projector.interrupt();
+			parser.join();
+			projector.join();
+		}
+
+		if(error instanceof IOException) throw (IOException)error;
+		if(error != null) throw new IOException("reading osm file in the pipeline failed", error);
+	}
+
+	// hands the end marker to the next stage. a failed stage drops its queued
+	// batches, so the marker gets through even if nobody takes them
+	private static void end(BlockingQueue<Batch> queue, boolean done){
+		if(done){
+			try{
+				queue.put(END);
+				return;
+			}catch(InterruptedException e){
+				// the consumer gave up
+			}
+		}
+		queue.clear();
+		queue.offer(END);
+	}
+
+	// collects the parsed nodes and ways into batches in file order
+	private class Parser implements OsmReader.Handler {
+		private Batch nodes = new Batch(false);
+		private Batch ways = new Batch(true);
+		private boolean started = false;
+
+		public void bounds(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude){
+			// only the header counts, the projection is set up before the first node
+			if(started || projecting) return;
+			projection.setup(minLatitude, maxLatitude, minLongitude, maxLongitude);
+			projecting = true;
+		}
+
+		public void node(long id, double latitude, double longitude) throws IOException {
+			started = true;
+			if(ways.size > 0){
+				publish(ways);
+				ways = new Batch(true);
+			}
+			if(nodes.size == BATCH_SIZE){
+				publish(nodes);
+				nodes = new Batch(false);
+			}
+			nodes.ids[nodes.size] = id;
+			nodes.latitudes[nodes.size] = latitude;
+			nodes.longitudes[nodes.size++] = longitude;
+			nodeCount++;
+
+			if(latitude < bounds[0])  bounds[0] = latitude;
+			if(latitude > bounds[1])  bounds[1] = latitude;
+			if(longitude < bounds[2]) bounds[2] = longitude;
+			if(longitude > bounds[3]) bounds[3] = longitude;
+		}
+
+		public void way(long id, long[] refs, int count) throws IOException {
+			started = true;
+			if(nodes.size > 0){
+				publish(nodes);
+				nodes = new Batch(false);
+			}
+			if(ways.size == BATCH_SIZE){
+				publish(ways);
+				ways = new Batch(true);
+			}
+
+			int offset = ways.offsets[ways.size];
+			if(offset + count > ways.refs.length)
+				ways.refs = Arrays.copyOf(ways.refs, Math.max(ways.refs.length << 1, offset + count));
+			System.arraycopy(refs, 0, ways.refs, offset, count);
+			ways.ids[ways.size++] = id;
+			ways.offsets[ways.size] = offset + count;
+		}
+
+		void finish() throws IOException {
+			publish(nodes);
+			publish(ways);
+		}
+
+		private void publish(Batch batch) throws IOException {
+			if(batch.size == 0) return;
+			try{
+				parsed.put(batch);
+			}catch(InterruptedException e){
+				throw new InterruptedIOException("pipeline interrupted");
+			}
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package osm2wkt;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+// streaming reader of openstreetmap xml. nodes and ways are handed to a handler
+// in document order while the file is parsed, so the document is never held in
+// memory as a whole
+public class OsmReader {
+
+	private final static String XML_TAG_OSM 	= "osm";
+	private final static String XML_TAG_BOUNDS 	= "bounds";
+	private final static String XML_TAG_MINLAT 	= "minlat";
+	private final static String XML_TAG_MINLON 	= "minlon";
+	private final static String XML_TAG_MAXLAT 	= "maxlat";
+	private final static String XML_TAG_MAXLON 	= "maxlon";
+	private final static String XML_TAG_NODE 	= "node";
+	private final static String XML_TAG_ID 		= "id";
+	private final static String XML_TAG_LAT 	= "lat";
+	private final static String XML_TAG_LON 	= "lon";
+	private final static String XML_TAG_WAY 	= "way";
+	private final static String XML_TAG_ND 		= "nd";
+	private final static String XML_TAG_REF 	= "ref";
+
+	private final static int BUFFER_SIZE = 1 << 16;
+
+	public interface Handler {
+		// the bounds element of the file header, if there is one
+		default void bounds(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude)
+			throws IOException {
+		}
+		void node(long id, double latitude, double longitude) throws IOException;
+		// refs[0] to refs[count-1] are the landmarks of the way, the array is reused
+		void way(long id, long[] refs, int count) throws IOException;
+	}
+
+	public static void read(File file, Handler handler) throws IOException {
+		read(file, handler, System.out);
+	}
+
+	// problems with single elements are reported to log
+	public static void read(File file, Handler handler, PrintStream log) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+		try{
+			read(in, handler, log);
+		}finally{
+			in.close();
+		}
+	}
+
+	public static void read(InputStream in, Handler handler, PrintStream log) throws IOException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+
+		XMLStreamReader reader = null;
+		try{
+			reader = factory.createXMLStreamReader(in);
+			reader.nextTag();
+			if(!reader.getLocalName().equals(XML_TAG_OSM)){
+				throw new IOException("invalid osm file, root element is "
+						+ reader.getLocalName() + " but should be " + XML_TAG_OSM);
+			}
+
+			long wayId = 0;
+			boolean inWay = false;
+			long[] refs = new long[256];
+			int count = 0;
+
+			while(reader.hasNext()){
+				int event = reader.next();
+
+				if(event == XMLStreamConstants.START_ELEMENT){
+					String name = reader.getLocalName();
+
+					if(name.equals(XML_TAG_NODE)){
+						String id = reader.getAttributeValue(null, XML_TAG_ID);
+						String lat = reader.getAttributeValue(null, XML_TAG_LAT);
+						String lon = reader.getAttributeValue(null, XML_TAG_LON);
+						if(id == null || lat == null || lon == null){
+							log.println("missing attribute in landmark at line "
+									+ reader.getLocation().getLineNumber());
+							continue;
+						}
+						handler.node(Long.parseLong(id), Double.parseDouble(lat), Double.parseDouble(lon));
+
+					}else if(name.equals(XML_TAG_BOUNDS)){
+						String minLat = reader.getAttributeValue(null, XML_TAG_MINLAT);
+						String minLon = reader.getAttributeValue(null, XML_TAG_MINLON);
+						String maxLat = reader.getAttributeValue(null, XML_TAG_MAXLAT);
+						String maxLon = reader.getAttributeValue(null, XML_TAG_MAXLON);
+						if(minLat == null || minLon == null || maxLat == null || maxLon == null) continue;
+						handler.bounds(Double.parseDouble(minLat), Double.parseDouble(minLon),
+								Double.parseDouble(maxLat), Double.parseDouble(maxLon));
+
+					}else if(name.equals(XML_TAG_WAY)){
+						String id = reader.getAttributeValue(null, XML_TAG_ID);
+						if(id == null){
+							log.println("missing attribute in street at line "
+									+ reader.getLocation().getLineNumber());
+							continue;
+						}
+						wayId = Long.parseLong(id);
+						inWay = true;
+						count = 0;
+
+					}else if(inWay && name.equals(XML_TAG_ND)){
+						String ref = reader.getAttributeValue(null, XML_TAG_REF);
+						if(ref == null){
+							log.println("missing attribute in street landmark at line "
+									+ reader.getLocation().getLineNumber());
+							continue;
+						}
+						if(count == refs.length) refs = java.util.Arrays.copyOf(refs, count << 1);
+						refs[count++] = Long.parseLong(ref);
+					}
+
+				}else if(event == XMLStreamConstants.END_ELEMENT){
+					if(inWay && reader.getLocalName().equals(XML_TAG_WAY)){
+						handler.way(wayId, refs, count);
+						inWay = false;
+					}
+				}
+			}
+		}catch(XMLStreamException e){
+			throw new IOException(e.getMessage(), e);
+		}catch(NumberFormatException e){
+			throw new IOException("invalid number in osm file: " + e.getMessage(), e);
+		}finally{
+			if(reader != null){
+				try{
+					reader.close();
+				}catch(XMLStreamException e){
+					// the input stream is closed by the caller
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package osm2wkt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// gzip output stream that compresses in parallel, following the scheme of pigz.
+// the input is cut into blocks that are deflated on a thread pool. every block
+// uses the last 32k of the previous block as preset dictionary and ends with a
+// sync flush, so the deflated blocks concatenate to one valid deflate stream.
+// the crc of the uncompressed data is computed by the writing thread
+public class ParallelGzipOutputStream extends OutputStream {
+
+	private final static int BLOCK_SIZE = 1 << 17;
+	private final static int DICTIONARY_SIZE = 1 << 15;
+
+	private final static byte[] HEADER = {
+		(byte)0x1f, (byte)0x8b, 	// magic
+		Deflater.DEFLATED, 			// compression method
+		0, 							// flags
+		0, 0, 0, 0, 				// modification time
+		0, 							// extra flags
+		(byte)0xff 					// operating system unknown
+	};
+
+	private final OutputStream out;
+	private final ExecutorService pool;
+	private final int level;
+	private final int window;
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+	private final CRC32 crc = new CRC32();
+
+	private byte[] block = new byte[BLOCK_SIZE];
+	private int fill = 0;
+	private byte[] previous = null;
+	private long size = 0;
+	private boolean closed = false;
+
+	public ParallelGzipOutputStream(OutputStream out) throws IOException {
+		this(out, Deflater.DEFAULT_COMPRESSION, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ParallelGzipOutputStream(OutputStream out, int level, int threads) throws IOException {
+		this.out = out;
+		this.level = level;
+		this.window = 2 * Math.max(1, threads);
+		this.pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+			Thread t = new Thread(r, "gzip-deflate");
+			t.setDaemon(true);
+			return t;
+		});
+		out.write(HEADER);
+	}
+
+	public void write(int b) throws IOException {
+		block[fill++] = (byte)b;
+		if(fill == block.length) submit(false);
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+		while(len > 0){
+			int n = Math.min(len, block.length - fill);
+			System.arraycopy(b, off, block, fill, n);
+			fill += n;
+			off += n;
+			len -= n;
+			if(fill == block.length) submit(false);
+		}
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		if(closed) return;
+		closed = true;
+
+		try{
+			submit(true);
+			while(!pending.isEmpty()) out.write(result(pending.poll()));
+
+			// trailer with crc and size of the uncompressed data, little endian
+			long value = crc.getValue();
+			byte[] trailer = new byte[8];
+			for(int i=0; i<4; i++){
+				trailer[i] = (byte)(value >>> (8*i));
+				trailer[4+i] = (byte)(size >>> (8*i));
+			}
+			out.write(trailer);
+		}finally{
+			pool.shutdownNow();
+			out.close();
+		}
+	}
+
+	private void submit(final boolean last) throws IOException {
+		crc.update(block, 0, fill);
+		size += fill;
+
+		final byte[] data = block;
+		final int length = fill;
+		final byte[] dictionary = previous;
+		pending.add(pool.submit(() -> deflate(data, length, dictionary, last)));
+
+		previous = data;
+		block = new byte[BLOCK_SIZE];
+		fill = 0;
+
+		// write out finished blocks and bound the number of blocks in flight
+		while(!pending.isEmpty() && (pending.size() > window || pending.peek().isDone())){
+			out.write(result(pending.poll()));
+		}
+	}
+
+	private byte[] deflate(byte[] data, int length, byte[] dictionary, boolean last){
+		Deflater deflater = new Deflater(level, true);
+		try{
+			if(dictionary != null)
+				deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+			deflater.setInput(data, 0, length);
+
+			ByteArrayOutputStream result = new ByteArrayOutputStream(length / 2 + 64);
+			byte[] buffer = new byte[1 << 16];
+			if(last){
+				deflater.finish();
+				while(!deflater.finished()){
+					int n = deflater.deflate(buffer);
+					result.write(buffer, 0, n);
+				}
+			}else{
+				// a sync flush aligns the block to a byte boundary
+				int n;
+				do{
+					n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					result.write(buffer, 0, n);
+				}while(n == buffer.length);
+			}
+			return result.toByteArray();
+		}finally{
+			deflater.end();
+		}
+	}
+
+	private static byte[] result(Future<byte[]> future) throws IOException {
+		try{
+			return future.get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("compression interrupted", e);
+		}catch(ExecutionException e){
+			throw new IOException("compression failed", e.getCause());
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package osm2wkt;
+
+import java.util.stream.IntStream;
+
+// projection of geographic landmarks into the plain x/y coordinate system in
+// meters. all projections work on primitive lat/lon arrays, add the map
+// translation in the same loop and run in parallel over chunks of landmarks
+public abstract class Projection {
+
+	public final static String HAVERSINE 		= "haversine";
+	public final static String EQUIRECTANGULAR 	= "equirect";
+	public final static String UTM 				= "utm";
+
+	private final static int CHUNK_SIZE = 1 << 16;
+
+	protected final static double EARTH_RADIUS = 6371000.0d; // meters, as used by geoDistance
+
+	protected double latMin, latMax, lonMin, lonMax;
+	protected int precision = Osm2Wkt.precisonFloating;
+
+	public static Projection forName(String name){
+		if(HAVERSINE.equals(name)) 			return new Haversine();
+		if(EQUIRECTANGULAR.equals(name)) 	return new Equirectangular();
+		if(UTM.equals(name)) 				return new TransverseMercator();
+		throw new IllegalArgumentException("unknown projection " + name);
+	}
+
+	public abstract String name();
+
+	// prepare the projection for the geographic bounds of the map,
+	// (latMin,lonMin) becomes the origin of the coordinate system
+	public void setup(double latMin, double latMax, double lonMin, double lonMax){
+		this.latMin = latMin;
+		this.latMax = latMax;
+		this.lonMin = lonMin;
+		this.lonMax = lonMax;
+	}
+
+	// the geographic bounds given to setup: latMin, latMax, lonMin, lonMax
+	public double[] bounds(){
+		return new double[]{ latMin, latMax, lonMin, lonMax };
+	}
+
+	// project the landmarks [from,to) and write the coordinates relative to
+	// the origin plus the translation (dx,dy) into x and y
+	protected abstract void project(double[] lat, double[] lon, double[] x, double[] y,
+			int from, int to, double dx, double dy);
+
+	public void projectAll(final double[] lat, final double[] lon, final double[] x, final double[] y,
+			final int count, final double dx, final double dy){
+		int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		IntStream.range(0, chunks).parallel().forEach(c ->
+			project(lat, lon, x, y, c*CHUNK_SIZE, Math.min(count, (c+1)*CHUNK_SIZE), dx, dy)
+		);
+	}
+
+	// same as Osm2Wkt.round for the positive values we produce, without BigDecimal
+	protected static double round(double d, double scale){
+		return Math.floor(d * scale + 0.5d) / scale;
+	}
+
+	protected double scale(){
+		return Math.pow(10, precision);
+	}
+
+	//****************************************************************************
+	// haversine distances to the left and bottom border, the original osm2wkt projection
+
+	static class Haversine extends Projection {
+
+		public String name(){
+			return HAVERSINE;
+		}
+
+		protected void project(double[] lat, double[] lon, double[] x, double[] y,
+				int from, int to, double dx, double dy){
+			double scale = scale();
+			double rlatMin = Math.toRadians(latMin);
+			double rlonMin = Math.toRadians(lonMin);
+			double coslatMin = Math.cos(rlatMin);
+
+			for(int i=from; i<to; i++){
+				double rlat = Math.toRadians(lat[i]);
+				double coslat = Math.cos(rlat);
+
+				// distance to (lat, lonMin), the haversine of the latitude difference is 0
+				double s = Math.sin((Math.toRadians(lon[i]) - rlonMin) / 2);
+				double a = coslat * coslat * s * s;
+				x[i] = round(2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a)) * EARTH_RADIUS, scale) + dx;
+
+				// distance to (latMin, lon), the haversine of the longitude difference is 0
+				s = Math.sin((rlat - rlatMin) / 2);
+				a = s * s;
+				y[i] = round(2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a)) * EARTH_RADIUS, scale) + dy;
+			}
+		}
+	}
+
+	//****************************************************************************
+	// local equirectangular projection around the center latitude of the map
+
+	static class Equirectangular extends Projection {
+
+		public String name(){
+			return EQUIRECTANGULAR;
+		}
+
+		protected void project(double[] lat, double[] lon, double[] x, double[] y,
+				int from, int to, double dx, double dy){
+			double scale = scale();
+			double kx = EARTH_RADIUS * Math.cos(Math.toRadians((latMin + latMax) / 2)) * Math.PI / 180;
+			double ky = EARTH_RADIUS * Math.PI / 180;
+
+			for(int i=from; i<to; i++){
+				x[i] = round((lon[i] - lonMin) * kx, scale) + dx;
+				y[i] = round((lat[i] - latMin) * ky, scale) + dy;
+			}
+		}
+	}
+
+	//****************************************************************************
+	// transverse mercator on the wgs84 ellipsoid with the central meridian of
+	// the utm zone of the map center, see snyder "map projections - a working manual"
+
+	static class TransverseMercator extends Projection {
+
+		private final static double A 	= 6378137.0d;
+		private final static double F 	= 1 / 298.257223563d;
+		private final static double K0 	= 0.9996d;
+		private final static double E2 	= F * (2 - F);
+		private final static double EP2 = E2 / (1 - E2);
+
+		private final static double M1 = 1 - E2/4 - 3*E2*E2/64 - 5*E2*E2*E2/256;
+		private final static double M2 = 3*E2/8 + 3*E2*E2/32 + 45*E2*E2*E2/1024;
+		private final static double M3 = 15*E2*E2/256 + 45*E2*E2*E2/1024;
+		private final static double M4 = 35*E2*E2*E2/3072;
+
+		private double centralMeridian;
+		private double originX, originY;
+
+		public String name(){
+			return UTM;
+		}
+
+		public void setup(double latMin, double latMax, double lonMin, double lonMax){
+			super.setup(latMin, latMax, lonMin, lonMax);
+			int zone = (int)Math.floor(((lonMin + lonMax) / 2 + 180) / 6) + 1;
+			centralMeridian = Math.toRadians((zone - 1) * 6 - 180 + 3);
+
+			// easting and northing are monotonic along the borders of the bounding
+			// box, so the minimum is found on the (densely sampled) border
+			originX = Double.MAX_VALUE;
+			originY = Double.MAX_VALUE;
+			double[] p = new double[2];
+			int samples = 256;
+			for(int i=0; i<=samples; i++){
+				double lat = latMin + (latMax - latMin) * i / samples;
+				double lon = lonMin + (lonMax - lonMin) * i / samples;
+				double[][] border = { {lat, lonMin}, {lat, lonMax}, {latMin, lon}, {latMax, lon} };
+				for(double[] b : border){
+					forward(b[0], b[1], p);
+					originX = Math.min(originX, p[0]);
+					originY = Math.min(originY, p[1]);
+				}
+			}
+		}
+
+		private void forward(double latitude, double longitude, double[] p){
+			double phi = Math.toRadians(latitude);
+			double sin = Math.sin(phi);
+			double cos = Math.cos(phi);
+			double tan = sin / cos;
+
+			double n = A / Math.sqrt(1 - E2*sin*sin);
+			double t = tan * tan;
+			double c = EP2 * cos * cos;
+			double a = (Math.toRadians(longitude) - centralMeridian) * cos;
+			double m = A * (M1*phi - M2*Math.sin(2*phi) + M3*Math.sin(4*phi) - M4*Math.sin(6*phi));
+
+			double a2 = a*a;
+			p[0] = K0 * n * (a + (1 - t + c)*a2*a/6
+					+ (5 - 18*t + t*t + 72*c - 58*EP2)*a2*a2*a/120);
+			p[1] = K0 * (m + n * tan * (a2/2 + (5 - t + 9*c + 4*c*c)*a2*a2/24
+					+ (61 - 58*t + t*t + 600*c - 330*EP2)*a2*a2*a2/720));
+		}
+
+		protected void project(double[] lat, double[] lon, double[] x, double[] y,
+				int from, int to, double dx, double dy){
+			double scale = scale();
+			double[] p = new double[2];
+
+			for(int i=from; i<to; i++){
+				forward(lat[i], lon[i], p);
+				x[i] = round(Math.max(0, p[0] - originX), scale) + dx;
+				y[i] = round(Math.max(0, p[1] - originY), scale) + dy;
+			}
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package osm2wkt;
+
+// compact snapshot of the landmark/street model in primitive arrays.
+// landmarks are addressed by their index, every street is a range
+// [streetOffsets[s], streetOffsets[s+1]) in streetLandmarks
+public final class RoadMap {
+
+	// landmark flags
+	public final static byte FLAG_CROSSING = 1; // inserted by the crossing repair
+
+	final long[] landmarkIds;
+	final double[] x;
+	final double[] y;
+
+	final long[] streetIds;
+	final int[] streetOffsets;
+	final int[] streetLandmarks;
+
+	final byte[] flags;
+
+	// optional symmetric adjacency of the weighted graph in compressed sparse
+	// row form over the landmark indices, null if the graph is not included
+	int[] adjacencyOffsets;
+	int[] adjacencyTargets;
+	double[] adjacencyWeights;
+
+	// optional projection of osm landmarks, null if the coordinates are not
+	// projected from geographic ones. the bounds are latMin, latMax, lonMin,
+	// lonMax of the projection setup followed by the translation dx, dy
+	String projection;
+	double[] projectionBounds;
+
+	RoadMap(long[] landmarkIds, double[] x, double[] y,
+			long[] streetIds, int[] streetOffsets, int[] streetLandmarks, byte[] flags){
+		this.landmarkIds = landmarkIds;
+		this.x = x;
+		this.y = y;
+		this.streetIds = streetIds;
+		this.streetOffsets = streetOffsets;
+		this.streetLandmarks = streetLandmarks;
+		this.flags = flags;
+	}
+
+	void setAdjacency(int[] offsets, int[] targets, double[] weights){
+		this.adjacencyOffsets = offsets;
+		this.adjacencyTargets = targets;
+		this.adjacencyWeights = weights;
+	}
+
+	void setProjection(String name, double[] bounds){
+		this.projection = name;
+		this.projectionBounds = bounds;
+	}
+
+	public int landmarkCount(){
+		return landmarkIds.length;
+	}
+
+	public long landmarkId(int landmark){
+		return landmarkIds[landmark];
+	}
+
+	public double x(int landmark){
+		return x[landmark];
+	}
+
+	public double y(int landmark){
+		return y[landmark];
+	}
+
+	public boolean isCrossing(int landmark){
+		return (flags[landmark] & FLAG_CROSSING) != 0;
+	}
+
+	public int streetCount(){
+		return streetIds.length;
+	}
+
+	public long streetId(int street){
+		return streetIds[street];
+	}
+
+	public int streetLength(int street){
+		return streetOffsets[street+1] - streetOffsets[street];
+	}
+
+	// index of the i-th landmark of the given street
+	public int streetLandmark(int street, int i){
+		return streetLandmarks[streetOffsets[street] + i];
+	}
+
+	// total number of landmark references of all streets
+	public int streetPointCount(){
+		return streetLandmarks.length;
+	}
+
+	public boolean hasProjection(){
+		return projection != null;
+	}
+
+	public String projectionName(){
+		return projection;
+	}
+
+	public boolean hasAdjacency(){
+		return adjacencyOffsets != null;
+	}
+
+	public int degree(int landmark){
+		return adjacencyOffsets[landmark+1] - adjacencyOffsets[landmark];
+	}
+
+	// the i-th neighbour of the landmark in the weighted graph
+	public int neighbour(int landmark, int i){
+		return adjacencyTargets[adjacencyOffsets[landmark] + i];
+	}
+
+	public double weight(int landmark, int i){
+		return adjacencyWeights[adjacencyOffsets[landmark] + i];
+	}
+}
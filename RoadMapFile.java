@@ -0,0 +1,266 @@
+package osm2wkt;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+// versioned binary file format for a road map. all sections are little endian
+// primitive arrays, 8 byte sections first so every section stays aligned:
+//
+//   header   magic "O2WB", version, landmark count, street count,
+//            street point count, adjacency entry count (-1 if absent),
+//            projection (0 if absent), reserved
+//   double   projection bounds and translation, only if a projection is present
+//   long     landmark ids, double x, double y, long street ids,
+//            double adjacency weights
+//   int      street offsets, street landmarks, adjacency offsets, adjacency targets
+//   byte     landmark flags
+//
+// the reader memory-maps the file and copies the sections with bulk transfers
+public class RoadMapFile {
+
+	public final static String FILE_EXT = "o2wb";
+
+	private final static int MAGIC = 0x4257324f; // "O2WB" little endian
+	private final static int VERSION = 2; // version 2 added the projection
+	private final static int HEADER_SIZE = 32;
+	private final static int PROJECTION_SIZE = 6 * 8;
+
+	// projection names by their code minus one
+	private final static String[] PROJECTIONS = {
+		Projection.HAVERSINE, Projection.EQUIRECTANGULAR, Projection.UTM
+	};
+
+	// elements per mapped window, keeps every mapping below 2 GB
+	private final static int WINDOW = 1 << 27;
+
+	private final static int BUFFER_SIZE = 1 << 20;
+
+	public static void write(RoadMap map, File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try{
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			boolean adjacency = map.hasAdjacency();
+
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(map.landmarkCount());
+			buffer.putInt(map.streetCount());
+			buffer.putInt(map.streetPointCount());
+			buffer.putInt(adjacency ? map.adjacencyTargets.length : -1);
+			buffer.putInt(projectionCode(map.projection));
+			buffer.putInt(0);
+			if(map.hasProjection()) putDoubles(map.projectionBounds, buffer, channel);
+
+			putLongs(map.landmarkIds, buffer, channel);
+			putDoubles(map.x, buffer, channel);
+			putDoubles(map.y, buffer, channel);
+			putLongs(map.streetIds, buffer, channel);
+			if(adjacency) putDoubles(map.adjacencyWeights, buffer, channel);
+			putInts(map.streetOffsets, buffer, channel);
+			putInts(map.streetLandmarks, buffer, channel);
+			if(adjacency){
+				putInts(map.adjacencyOffsets, buffer, channel);
+				putInts(map.adjacencyTargets, buffer, channel);
+			}
+			putBytes(map.flags, buffer, channel);
+
+			drain(buffer, channel);
+		}finally{
+			channel.close();
+		}
+	}
+
+	public static RoadMap read(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try{
+			if(channel.size() < HEADER_SIZE) throw new IOException("file too short for a road map");
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+					.order(ByteOrder.LITTLE_ENDIAN);
+
+			if(header.getInt() != MAGIC) throw new IOException("not a binary road map");
+			int version = header.getInt();
+			if(version < 1 || version > VERSION) throw new IOException("unsupported road map version " + version);
+
+			int landmarks = header.getInt();
+			int streets = header.getInt();
+			int points = header.getInt();
+			int entries = header.getInt();
+			int code = header.getInt(); // reserved and 0 in version 1
+			boolean adjacency = entries >= 0;
+			if(landmarks < 0 || streets < 0 || points < 0 || code < 0 || code > PROJECTIONS.length)
+				throw new IOException("corrupt road map header");
+
+			long expected = HEADER_SIZE + (code > 0 ? PROJECTION_SIZE : 0)
+				+ 8L * (3L*landmarks + streets + (adjacency ? entries : 0))
+				+ 4L * ((streets + 1L) + points + (adjacency ? (landmarks + 1L) + entries : 0))
+				+ landmarks;
+			if(channel.size() != expected)
+				throw new IOException("road map size is " + channel.size() + " but should be " + expected);
+
+			long position = HEADER_SIZE;
+			double[] bounds = null;
+			if(code > 0){
+				bounds = new double[PROJECTION_SIZE / 8];
+				position = getDoubles(channel, position, bounds);
+			}
+			long[] ids = new long[landmarks];
+			position = getLongs(channel, position, ids);
+			double[] x = new double[landmarks];
+			position = getDoubles(channel, position, x);
+			double[] y = new double[landmarks];
+			position = getDoubles(channel, position, y);
+			long[] streetIds = new long[streets];
+			position = getLongs(channel, position, streetIds);
+			double[] weights = null;
+			if(adjacency){
+				weights = new double[entries];
+				position = getDoubles(channel, position, weights);
+			}
+			int[] offsets = new int[streets + 1];
+			position = getInts(channel, position, offsets);
+			int[] refs = new int[points];
+			position = getInts(channel, position, refs);
+			int[] adjacencyOffsets = null;
+			int[] targets = null;
+			if(adjacency){
+				adjacencyOffsets = new int[landmarks + 1];
+				position = getInts(channel, position, adjacencyOffsets);
+				targets = new int[entries];
+				position = getInts(channel, position, targets);
+			}
+			byte[] flags = new byte[landmarks];
+			position = getBytes(channel, position, flags);
+
+			// the offsets and references are checked, so the arrays can be used
+			// without further validation
+			if(offsets[0] != 0 || offsets[streets] != points)
+				throw new IOException("corrupt street offsets");
+			for(int i=0; i<streets; i++){
+				if(offsets[i] > offsets[i+1]) throw new IOException("corrupt street offsets");
+			}
+			for(int i=0; i<points; i++){
+				if(refs[i] < 0 || refs[i] >= landmarks) throw new IOException("corrupt street landmarks");
+			}
+			if(adjacency){
+				if(adjacencyOffsets[0] != 0 || adjacencyOffsets[landmarks] != entries)
+					throw new IOException("corrupt adjacency offsets");
+				for(int i=0; i<landmarks; i++){
+					if(adjacencyOffsets[i] > adjacencyOffsets[i+1]) throw new IOException("corrupt adjacency offsets");
+				}
+				for(int i=0; i<entries; i++){
+					if(targets[i] < 0 || targets[i] >= landmarks) throw new IOException("corrupt adjacency targets");
+				}
+			}
+
+			RoadMap map = new RoadMap(ids, x, y, streetIds, offsets, refs, flags);
+			if(adjacency) map.setAdjacency(adjacencyOffsets, targets, weights);
+			if(code > 0) map.setProjection(PROJECTIONS[code-1], bounds);
+			return map;
+		}finally{
+			channel.close();
+		}
+	}
+
+	private static int projectionCode(String name){
+		for(int i=0; i<PROJECTIONS.length; i++){
+			if(PROJECTIONS[i].equals(name)) return i+1;
+		}
+		return 0;
+	}
+
+	//****************************************************************************
+	// bulk transfers between arrays and buffers
+
+	private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+
+	private static void putLongs(long[] values, ByteBuffer buffer, FileChannel channel) throws IOException {
+		for(int i=0; i<values.length; ){
+			if(buffer.remaining() < 8) drain(buffer, channel);
+			int n = Math.min(values.length - i, buffer.remaining() / 8);
+			buffer.asLongBuffer().put(values, i, n);
+			buffer.position(buffer.position() + 8*n);
+			i += n;
+		}
+	}
+
+	private static void putDoubles(double[] values, ByteBuffer buffer, FileChannel channel) throws IOException {
+		for(int i=0; i<values.length; ){
+			if(buffer.remaining() < 8) drain(buffer, channel);
+			int n = Math.min(values.length - i, buffer.remaining() / 8);
+			buffer.asDoubleBuffer().put(values, i, n);
+			buffer.position(buffer.position() + 8*n);
+			i += n;
+		}
+	}
+
+	private static void putInts(int[] values, ByteBuffer buffer, FileChannel channel) throws IOException {
+		for(int i=0; i<values.length; ){
+			if(buffer.remaining() < 4) drain(buffer, channel);
+			int n = Math.min(values.length - i, buffer.remaining() / 4);
+			buffer.asIntBuffer().put(values, i, n);
+			buffer.position(buffer.position() + 4*n);
+			i += n;
+		}
+	}
+
+	private static void putBytes(byte[] values, ByteBuffer buffer, FileChannel channel) throws IOException {
+		for(int i=0; i<values.length; ){
+			if(!buffer.hasRemaining()) drain(buffer, channel);
+			int n = Math.min(values.length - i, buffer.remaining());
+			buffer.put(values, i, n);
+			i += n;
+		}
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+		MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+		mapped.order(ByteOrder.LITTLE_ENDIAN);
+		return mapped;
+	}
+
+	private static long getLongs(FileChannel channel, long position, long[] values) throws IOException {
+		for(int i=0; i<values.length; i+=WINDOW){
+			int n = Math.min(WINDOW, values.length - i);
+			map(channel, position, 8L*n).asLongBuffer().get(values, i, n);
+			position += 8L*n;
+		}
+		return position;
+	}
+
+	private static long getDoubles(FileChannel channel, long position, double[] values) throws IOException {
+		for(int i=0; i<values.length; i+=WINDOW){
+			int n = Math.min(WINDOW, values.length - i);
+			map(channel, position, 8L*n).asDoubleBuffer().get(values, i, n);
+			position += 8L*n;
+		}
+		return position;
+	}
+
+	private static long getInts(FileChannel channel, long position, int[] values) throws IOException {
+		for(int i=0; i<values.length; i+=WINDOW){
+			int n = Math.min(WINDOW, values.length - i);
+			map(channel, position, 4L*n).asIntBuffer().get(values, i, n);
+			position += 4L*n;
+		}
+		return position;
+	}
+
+	private static long getBytes(FileChannel channel, long position, byte[] values) throws IOException {
+		for(int i=0; i<values.length; i+=WINDOW){
+			int n = Math.min(WINDOW, values.length - i);
+			map(channel, position, n).get(values, i, n);
+			position += n;
+		}
+		return position;
+	}
+}
@@ -0,0 +1,125 @@
+package osm2wkt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+// uniform grid over street segments and landmarks of a region of the map.
+// a segment is registered in every cell its bounding box touches, so a query
+// returns all segments whose bounding boxes may overlap the query box
+class SegmentGrid {
+
+	final static long NONE = Long.MIN_VALUE;
+
+	static class Segment {
+		final long street;
+		final long from;
+		final long to;
+		final int index;	// position in the caller's list of segments, -1 if unused
+		final double minX, minY, maxX, maxY;
+
+		Segment(long street, long from, long to, double x1, double y1, double x2, double y2){
+			this(street, from, to, -1, x1, y1, x2, y2);
+		}
+
+		Segment(long street, long from, long to, int index, double x1, double y1, double x2, double y2){
+			this.street = street;
+			this.from = from;
+			this.to = to;
+			this.index = index;
+			this.minX = Math.min(x1, x2);
+			this.minY = Math.min(y1, y2);
+			this.maxX = Math.max(x1, x2);
+			this.maxY = Math.max(y1, y2);
+		}
+	}
+
+	private static class Point {
+		final long id;
+		final double x, y;
+
+		Point(long id, double x, double y){
+			this.id = id;
+			this.x = x;
+			this.y = y;
+		}
+	}
+
+	private final double cellSize;
+	private final HashMap<Long,ArrayList<Segment>> segments = new HashMap<Long,ArrayList<Segment>>();
+	private final HashMap<Long,ArrayList<Point>> points = new HashMap<Long,ArrayList<Point>>();
+
+	SegmentGrid(double cellSize){
+		this.cellSize = cellSize;
+	}
+
+	private long cell(long cx, long cy){
+		return (cx << 32) ^ (cy & 0xffffffffL);
+	}
+
+	private long index(double v){
+		return (long)Math.floor(v / cellSize);
+	}
+
+	void add(Segment segment){
+		for(long cx=index(segment.minX); cx<=index(segment.maxX); cx++){
+			for(long cy=index(segment.minY); cy<=index(segment.maxY); cy++){
+				ArrayList<Segment> list = segments.get(cell(cx, cy));
+				if(list == null){
+					list = new ArrayList<Segment>(4);
+					segments.put(cell(cx, cy), list);
+				}
+				list.add(segment);
+			}
+		}
+	}
+
+	void remove(Segment segment){
+		for(long cx=index(segment.minX); cx<=index(segment.maxX); cx++){
+			for(long cy=index(segment.minY); cy<=index(segment.maxY); cy++){
+				ArrayList<Segment> list = segments.get(cell(cx, cy));
+				if(list != null) list.remove(segment);
+			}
+		}
+	}
+
+	// segments whose bounding box overlaps the given box, each reported once
+	LinkedHashSet<Segment> query(double minX, double minY, double maxX, double maxY){
+		LinkedHashSet<Segment> result = new LinkedHashSet<Segment>();
+		for(long cx=index(minX); cx<=index(maxX); cx++){
+			for(long cy=index(minY); cy<=index(maxY); cy++){
+				ArrayList<Segment> list = segments.get(cell(cx, cy));
+				if(list == null) continue;
+				for(Segment s : list){
+					if(s.maxX < minX || s.minX > maxX || s.maxY < minY || s.minY > maxY) continue;
+					result.add(s);
+				}
+			}
+		}
+		return result;
+	}
+
+	void addPoint(long id, double x, double y){
+		long key = cell(index(x), index(y));
+		ArrayList<Point> list = points.get(key);
+		if(list == null){
+			list = new ArrayList<Point>(4);
+			points.put(key, list);
+		}
+		list.add(new Point(id, x, y));
+	}
+
+	// id of a landmark closer than epsilon in x and y or NONE
+	long findPoint(double x, double y, double epsilon){
+		for(long cx=index(x - epsilon); cx<=index(x + epsilon); cx++){
+			for(long cy=index(y - epsilon); cy<=index(y + epsilon); cy++){
+				ArrayList<Point> list = points.get(cell(cx, cy));
+				if(list == null) continue;
+				for(Point p : list){
+					if(Math.abs(p.x - x) < epsilon && Math.abs(p.y - y) < epsilon) return p.id;
+				}
+			}
+		}
+		return NONE;
+	}
+}
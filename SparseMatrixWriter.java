@@ -0,0 +1,267 @@
+package osm2wkt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+// sparse matrices of the weighted graph of a road map. the rows of the road
+// map adjacency are sorted and merged in one parallel pass over the landmarks,
+// parallel edges become one entry with the edge count and the summed weight.
+// row and column i stand for landmark i of the road map, or vertex i of an
+// adjacency given directly.
+//
+// the matrices are written as symmetric matrix market coordinate files, which
+// store the lower triangle, or as binary compressed sparse row dump of the full
+// weighted adjacency, little endian:
+//
+//   header   magic "O2WC", version, rows, reserved, long entries
+//   double   values
+//   int      row offsets, column indices
+public class SparseMatrixWriter {
+
+	public final static String FILE_EXT_MTX = "mtx";
+	public final static String FILE_EXT_CSR = "csr";
+
+	// matrices for writeMatrixMarket
+	public final static int ADJACENCY 				= 0; // number of edges, loops count twice
+	public final static int WEIGHTED_ADJACENCY 		= 1; // summed edge weights
+	public final static int LAPLACIAN 				= 2; // of the simple graph, loops,
+	public final static int NORMALIZED_LAPLACIAN 	= 3; // parallel edges and weights are ignored
+
+	private final static String[] NAMES = {
+		"adjacency matrix", "weighted adjacency matrix", "laplacian matrix", "normalized laplacian matrix"
+	};
+
+	// room for one "row column value" line
+	private final static int MAX_ENTRY_LENGTH = 3 * AsciiFormat.MAX_NUMBER_LENGTH + 3;
+
+	private final static int CSR_MAGIC = 0x4357324f; // "O2WC" little endian
+	private final static int CSR_VERSION = 1;
+
+	private final static int CHUNK_SIZE = 1 << 14;
+	private final static int BUFFER_SIZE = 1 << 20;
+
+	// rows longer than this are sorted with Arrays.sort
+	private final static int INSERTION_SORT_LENGTH = 32;
+
+	private final int rows;
+	private final int[] offsets;	// row i starts at offsets[i] ...
+	private final int[] lengths;	// ... and has lengths[i] merged entries
+	private final int[] columns;
+	private final int[] counts;
+	private final double[] weights;
+	private final int[] degrees;	// neighbours in the simple graph
+
+	private final int decimals;
+
+	// decimals are used for the weights, negative values write them exactly
+	public SparseMatrixWriter(final RoadMap map, int decimals){
+		this(requireAdjacency(map).landmarkCount(), map.adjacencyOffsets,
+				map.adjacencyTargets, map.adjacencyWeights, decimals);
+	}
+
+	// symmetric adjacency in compressed sparse rows, every edge is listed in
+	// the rows of both its ends
+	SparseMatrixWriter(int rows, final int[] adjacencyOffsets,
+			final int[] adjacencyTargets, final double[] adjacencyWeights, int decimals){
+		this.decimals = decimals;
+		this.rows = rows;
+		this.offsets = adjacencyOffsets;
+		this.lengths = new int[rows];
+		this.columns = new int[offsets[rows]];
+		this.counts = new int[offsets[rows]];
+		this.weights = new double[offsets[rows]];
+		this.degrees = new int[rows];
+
+		int chunks = (rows + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		IntStream.range(0, chunks).parallel().forEach(c ->
+			mergeRows(adjacencyTargets, adjacencyWeights, c*CHUNK_SIZE, Math.min(rows, (c+1)*CHUNK_SIZE))
+		);
+	}
+
+	private static RoadMap requireAdjacency(RoadMap map){
+		if(!map.hasAdjacency()) throw new IllegalArgumentException("road map has no adjacency");
+		return map;
+	}
+
+	private void mergeRows(int[] targets, double[] targetWeights, int from, int to){
+		long[] keys = new long[0];
+
+		for(int i=from; i<to; i++){
+			int start = offsets[i];
+			int end = offsets[i+1];
+
+			// sort the row by column, the rows of road maps are short
+			if(end - start <= INSERTION_SORT_LENGTH){
+				for(int k=start; k<end; k++){
+					int column = targets[k];
+					double weight = targetWeights[k];
+					int p = k;
+					for( ; p > start && columns[p-1] > column; p--){
+						columns[p] = columns[p-1];
+						weights[p] = weights[p-1];
+					}
+					columns[p] = column;
+					weights[p] = weight;
+				}
+			}else{
+				if(keys.length < end - start) keys = new long[end - start];
+				for(int k=start; k<end; k++)
+					keys[k-start] = ((long)targets[k] << 32) | (k - start);
+				Arrays.sort(keys, 0, end - start);
+				for(int k=start; k<end; k++){
+					columns[k] = (int)(keys[k-start] >>> 32);
+					weights[k] = targetWeights[start + (int)keys[k-start]];
+				}
+			}
+
+			// merge parallel edges
+			int n = 0;
+			for(int k=start; k<end; k++){
+				if(n > 0 && columns[start+n-1] == columns[k]){
+					counts[start+n-1]++;
+					weights[start+n-1] += weights[k];
+				}else{
+					columns[start+n] = columns[k];
+					weights[start+n] = weights[k];
+					counts[start+n] = 1;
+					n++;
+				}
+			}
+			lengths[i] = n;
+			degrees[i] = (n > 0 && hasLoop(i)) ? n-1 : n;
+		}
+	}
+
+	private boolean hasLoop(int row){
+		int start = offsets[row];
+		for(int k=start; k<start+lengths[row]; k++){
+			if(columns[k] == row) return true;
+			if(columns[k] > row) break;
+		}
+		return false;
+	}
+
+	public int rowCount(){
+		return rows;
+	}
+
+	//****************************************************************************
+	// matrix market
+
+	public void writeMatrixMarket(int matrix, WritableByteChannel channel) throws IOException {
+		if(matrix < ADJACENCY || matrix > NORMALIZED_LAPLACIAN)
+			throw new IllegalArgumentException("unknown matrix " + matrix);
+		boolean laplacian = matrix == LAPLACIAN || matrix == NORMALIZED_LAPLACIAN;
+
+		// entries of the lower triangle
+		long entries = 0;
+		for(int i=0; i<rows; i++){
+			int start = offsets[i];
+			for(int k=start; k<start+lengths[i] && columns[k] <= i; k++){
+				if(!laplacian || columns[k] != i) entries++;
+			}
+			if(laplacian && degrees[i] > 0) entries++;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		AsciiFormat.putAscii(buffer, "%%MatrixMarket matrix coordinate "
+				+ (matrix == ADJACENCY || matrix == LAPLACIAN ? "integer" : "real") + " symmetric\n"
+				+ "% " + NAMES[matrix] + " of the osm2wkt weighted graph\n");
+		AsciiFormat.putLong(buffer, rows);
+		buffer.put((byte)' ');
+		AsciiFormat.putLong(buffer, rows);
+		buffer.put((byte)' ');
+		AsciiFormat.putLong(buffer, entries);
+		buffer.put((byte)'\n');
+
+		for(int i=0; i<rows; i++){
+			int start = offsets[i];
+			for(int k=start; k<start+lengths[i] && columns[k] <= i; k++){
+				int j = columns[k];
+				if(laplacian && j == i) continue;
+				if(buffer.remaining() < MAX_ENTRY_LENGTH) drain(buffer, channel);
+
+				putIndices(buffer, i, j);
+				switch(matrix){
+				case ADJACENCY:
+					// a loop is listed twice in the road map row, once for each end
+					AsciiFormat.putLong(buffer, counts[k]);
+					break;
+				case WEIGHTED_ADJACENCY:
+					AsciiFormat.putDouble(buffer, weights[k], decimals);
+					break;
+				case LAPLACIAN:
+					AsciiFormat.putLong(buffer, -1);
+					break;
+				default:
+					AsciiFormat.putDouble(buffer, -1 / Math.sqrt((double)degrees[i] * degrees[j]), -1);
+				}
+				buffer.put((byte)'\n');
+			}
+
+			if(laplacian && degrees[i] > 0){
+				if(buffer.remaining() < MAX_ENTRY_LENGTH) drain(buffer, channel);
+				putIndices(buffer, i, i);
+				AsciiFormat.putLong(buffer, matrix == LAPLACIAN ? degrees[i] : 1);
+				buffer.put((byte)'\n');
+			}
+		}
+
+		drain(buffer, channel);
+	}
+
+	private static void putIndices(ByteBuffer buffer, int i, int j){
+		AsciiFormat.putLong(buffer, i+1);
+		buffer.put((byte)' ');
+		AsciiFormat.putLong(buffer, j+1);
+		buffer.put((byte)' ');
+	}
+
+	//****************************************************************************
+	// binary csr
+
+	public void writeCsr(WritableByteChannel channel) throws IOException {
+		long entries = 0;
+		for(int i=0; i<rows; i++) entries += lengths[i];
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(CSR_MAGIC);
+		buffer.putInt(CSR_VERSION);
+		buffer.putInt(rows);
+		buffer.putInt(0);
+		buffer.putLong(entries);
+
+		for(int i=0; i<rows; i++){
+			for(int k=offsets[i]; k<offsets[i]+lengths[i]; k++){
+				if(buffer.remaining() < 8) drain(buffer, channel);
+				buffer.putDouble(weights[k]);
+			}
+		}
+
+		int offset = 0;
+		for(int i=0; i<=rows; i++){
+			if(buffer.remaining() < 4) drain(buffer, channel);
+			buffer.putInt(offset);
+			if(i < rows) offset += lengths[i];
+		}
+
+		for(int i=0; i<rows; i++){
+			for(int k=offsets[i]; k<offsets[i]+lengths[i]; k++){
+				if(buffer.remaining() < 4) drain(buffer, channel);
+				buffer.putInt(columns[k]);
+			}
+		}
+
+		drain(buffer, channel);
+	}
+
+	private static void drain(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+}
@@ -0,0 +1,149 @@
+package osm2wkt;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+
+// on-disk cache of intermediate pipeline results. entries are binary road maps
+// named by a hash of the input file content, the options that influence the
+// stage and the stage name. the cache is bounded in size, the least recently
+// used entries are evicted first
+public class StageCache {
+
+	private final static String ENTRY_EXT = "." + RoadMapFile.FILE_EXT;
+
+	private final File directory;
+	private final long maxBytes;
+
+	public StageCache(File directory, long maxBytes){
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+	public static File defaultDirectory(){
+		return new File(new File(System.getProperty("user.home"), ".osm2wkt"), "cache");
+	}
+
+	public static String hashFile(File file) throws IOException {
+		MessageDigest digest = sha256();
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try{
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+			while(channel.read(buffer) > 0 || buffer.position() > 0){
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}finally{
+			channel.close();
+		}
+		return hex(digest.digest());
+	}
+
+	public static String hash(String s){
+		try{
+			return hex(sha256().digest(s.getBytes("UTF-8")));
+		}catch(java.io.UnsupportedEncodingException e){
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// key of a stage result for the given input hash and stage options
+	public String key(String inputHash, String options, String stage){
+		return hash(inputHash + "|" + options + "|" + stage);
+	}
+
+	// the cached road map or null if there is no valid entry
+	public RoadMap get(String key){
+		File entry = new File(directory, key + ENTRY_EXT);
+		if(!entry.isFile()) return null;
+
+		try{
+			RoadMap map = RoadMapFile.read(entry);
+			entry.setLastModified(System.currentTimeMillis());
+			return map;
+		}catch(IOException e){
+			// broken entry, e.g. from a crashed run
+			entry.delete();
+			return null;
+		}
+	}
+
+	public void put(String key, RoadMap map) throws IOException {
+		// mkdirs fails if another conversion created the directory meanwhile
+		if(!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory())
+			throw new IOException("can not create cache directory " + directory);
+
+		// write to a temporary file first so readers never see partial entries
+		File temp = File.createTempFile(key, ".tmp", directory);
+		try{
+			RoadMapFile.write(map, temp);
+			Files.move(temp.toPath(), new File(directory, key + ENTRY_EXT).toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}finally{
+			temp.delete();
+		}
+
+		evict();
+	}
+
+	// size and access time of an entry, taken once so that concurrent
+	// accesses can not change the order while sorting
+	private static class Entry {
+		final File file;
+		final long length;
+		final long modified;
+
+		Entry(File file, long length, long modified){
+			this.file = file;
+			this.length = length;
+			this.modified = modified;
+		}
+	}
+
+	// remove the least recently used entries until the cache fits into maxBytes.
+	// entries that vanished meanwhile count as evicted
+	private synchronized void evict(){
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(ENTRY_EXT));
+		if(files == null) return;
+
+		ArrayList<Entry> entries = new ArrayList<Entry>(files.length);
+		long total = 0;
+		for(File file : files){
+			long modified = file.lastModified();
+			long length = file.length();
+			if(modified == 0) continue;
+			entries.add(new Entry(file, length, modified));
+			total += length;
+		}
+		if(total <= maxBytes) return;
+
+		entries.sort(Comparator.comparingLong(entry -> entry.modified));
+		for(Entry entry : entries){
+			if(total <= maxBytes) break;
+			if(entry.file.delete() || !entry.file.exists()) total -= entry.length;
+		}
+	}
+
+	private static MessageDigest sha256(){
+		try{
+			return MessageDigest.getInstance("SHA-256");
+		}catch(NoSuchAlgorithmException e){
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] bytes){
+		StringBuilder s = new StringBuilder(2*bytes.length);
+		for(byte b : bytes) s.append(String.format("%02x", b & 0xff));
+		return s.toString();
+	}
+}
@@ -0,0 +1,326 @@
+package osm2wkt;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.RecordingState;
+
+// wall time, allocated bytes, peak heap and domain counters of the stages of
+// one conversion. every stage is committed as a jfr event, so a recording
+// started with -XX:StartFlightRecording shows the stages next to gc and
+// allocation samples, and the whole run can be written as a json report.
+//
+// allocated bytes are summed over the live threads of the jvm, so the worker
+// threads of parallel stages are included, but threads that end within a
+// stage, like those of the osm pipeline, are missed. the heap only shrinks
+// by garbage collections, so its peak is the largest of the used heap before
+// every collection, taken from the gc notifications, and of the used heap when
+// a stage begins and ends. the notifications arrive shortly after a collection,
+// so one at the very end of a stage may be counted for the next. both are jvm wide, so the numbers are only
+// meaningful for one conversion at a time
+public class StageMetrics {
+
+	@Name("osm2wkt.Stage")
+	@Label("Conversion Stage")
+	@Category("osm2wkt")
+	@Description("One stage of a map conversion")
+	static class StageEvent extends Event {
+		@Label("Stage")
+		String stage;
+
+		@Label("Succeeded")
+		boolean ok;
+
+		@Label("Allocated")
+		@DataAmount
+		long allocated;
+
+		@Label("Peak Heap")
+		@DataAmount
+		long peakHeap;
+	}
+
+	@Name("osm2wkt.StageCounter")
+	@Label("Conversion Stage Counter")
+	@Category("osm2wkt")
+	@Description("A counter of one stage of a map conversion, like the crossings found")
+	static class CounterEvent extends Event {
+		@Label("Stage")
+		String stage;
+
+		@Label("Counter")
+		String counter;
+
+		@Label("Value")
+		long value;
+	}
+
+	// one finished or running stage
+	public class Stage {
+		private final String name;
+		private final StageEvent event = new StageEvent();
+		private final long start;
+		private final Map<Long,Long> allocatedAtStart;
+		private final LinkedHashMap<String,Long> counters = new LinkedHashMap<String,Long>();
+
+		private boolean ok = false;
+		private long nanos = 0;
+		private long allocated = 0;
+		private long peakHeap = 0;
+
+		private Stage(String name){
+			this.name = name;
+			this.peakHeap = usedHeap();
+			this.allocatedAtStart = allocatedBytes();
+			this.start = System.nanoTime();
+			event.begin();
+		}
+
+		public void end(boolean ok){
+			event.end();
+			this.nanos = System.nanoTime() - start;
+			this.ok = ok;
+			this.allocated = allocatedSince(allocatedAtStart);
+			synchronized(StageMetrics.this){
+				long used = usedHeap();
+				peakHeap(used);
+				this.peakHeap = Math.max(peakHeap, used);
+				if(current == this) current = null;
+			}
+
+			event.stage = name;
+			event.ok = ok;
+			event.allocated = allocated;
+			event.peakHeap = peakHeap;
+			event.commit();
+
+			for(Map.Entry<String,Long> counter : counters.entrySet()){
+				CounterEvent c = new CounterEvent();
+				c.stage = name;
+				c.counter = counter.getKey();
+				c.value = counter.getValue();
+				c.commit();
+			}
+		}
+	}
+
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final boolean allocationSupported;
+	private final Set<String> heapPools = new HashSet<String>();
+	private final List<NotificationEmitter> collectors = new ArrayList<NotificationEmitter>();
+
+	// the used heap before a collection is the peak since the collection before
+	private final NotificationListener collected = new NotificationListener(){
+		public void handleNotification(Notification notification, Object handback){
+			if(!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+				return;
+			GarbageCollectionNotificationInfo info =
+				GarbageCollectionNotificationInfo.from((CompositeData)notification.getUserData());
+			long used = 0;
+			for(Map.Entry<String,MemoryUsage> pool : info.getGcInfo().getMemoryUsageBeforeGc().entrySet()){
+				if(heapPools.contains(pool.getKey())) used += pool.getValue().getUsed();
+			}
+			synchronized(StageMetrics.this){
+				peakHeap(used);
+			}
+		}
+	};
+
+	private final ArrayList<Stage> stages = new ArrayList<Stage>();
+	private final LinkedHashMap<String,Long> counters = new LinkedHashMap<String,Long>();
+	private Stage current = null;
+
+	// the whole run, from construction to finish
+	private final long start;
+	private final Map<Long,Long> allocatedAtStart;
+	private long nanos = -1;
+	private long allocated = 0;
+	private long peakHeapOfRun = 0;
+	private boolean ok = false;
+
+	public StageMetrics(){
+		boolean supported = threads instanceof com.sun.management.ThreadMXBean
+			&& ((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemorySupported();
+		if(supported) ((com.sun.management.ThreadMXBean)threads).setThreadAllocatedMemoryEnabled(true);
+		this.allocationSupported = supported;
+
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+			if(pool.getType() == MemoryType.HEAP) heapPools.add(pool.getName());
+		}
+		for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()){
+			if(!(collector instanceof NotificationEmitter)) continue;
+			((NotificationEmitter)collector).addNotificationListener(collected, null, null);
+			collectors.add((NotificationEmitter)collector);
+		}
+
+		this.peakHeapOfRun = usedHeap();
+		this.allocatedAtStart = allocatedBytes();
+		this.start = System.nanoTime();
+	}
+
+	public synchronized Stage begin(String name){
+		Stage stage = new Stage(name);
+		stages.add(stage);
+		current = stage;
+		return stage;
+	}
+
+	// adds to a counter of the running stage, or of the run if no stage is running
+	public synchronized void count(String counter, long value){
+		Map<String,Long> target = current != null ? current.counters : counters;
+		Long old = target.get(counter);
+		target.put(counter, old == null ? value : old + value);
+	}
+
+	// ends the run
+	public synchronized void finish(boolean ok){
+		this.nanos = System.nanoTime() - start;
+		this.allocated = allocatedSince(allocatedAtStart);
+		peakHeap(usedHeap());
+		this.ok = ok;
+
+		for(NotificationEmitter collector : collectors){
+			try{
+				collector.removeNotificationListener(collected);
+			}catch(javax.management.ListenerNotFoundException e){
+				// never added
+			}
+		}
+		collectors.clear();
+	}
+
+	// true if a flight recording is running, which records the stage events
+	public static boolean recording(){
+		if(!FlightRecorder.isInitialized()) return false;
+		for(jdk.jfr.Recording recording : FlightRecorder.getFlightRecorder().getRecordings()){
+			if(recording.getState() == RecordingState.RUNNING) return true;
+		}
+		return false;
+	}
+
+	// writes the run and its stages as json
+	public synchronized void write(File file, String input) throws IOException {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"input\": ").append(quote(input)).append(",\n");
+		json.append("  \"ok\": ").append(ok).append(",\n");
+		json.append("  \"wallMillis\": ").append(millis(nanos)).append(",\n");
+		json.append("  \"allocatedBytes\": ").append(allocated).append(",\n");
+		json.append("  \"peakHeapBytes\": ").append(peakHeapOfRun).append(",\n");
+		json.append("  \"counters\": ");
+		appendCounters(json, counters);
+		json.append(",\n  \"stages\": [");
+		for(int i=0; i<stages.size(); i++){
+			Stage stage = stages.get(i);
+			json.append(i == 0 ? "\n" : ",\n");
+			json.append("    {\"name\": ").append(quote(stage.name));
+			json.append(", \"ok\": ").append(stage.ok);
+			json.append(", \"wallMillis\": ").append(millis(stage.nanos));
+			json.append(", \"allocatedBytes\": ").append(stage.allocated);
+			json.append(", \"peakHeapBytes\": ").append(stage.peakHeap);
+			json.append(", \"counters\": ");
+			appendCounters(json, stage.counters);
+			json.append("}");
+		}
+		json.append(stages.isEmpty() ? "]\n" : "\n  ]\n");
+		json.append("}\n");
+
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try{
+			out.write(json.toString());
+		}finally{
+			out.close();
+		}
+	}
+
+	// allocated bytes of all live threads by thread id, empty if not supported
+	private Map<Long,Long> allocatedBytes(){
+		Map<Long,Long> bytes = new HashMap<Long,Long>();
+		if(!allocationSupported) return bytes;
+
+		long[] ids = threads.getAllThreadIds();
+		long[] allocated = ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(ids);
+		for(int i=0; i<ids.length; i++){
+			if(allocated[i] >= 0) bytes.put(ids[i], allocated[i]);
+		}
+		return bytes;
+	}
+
+	// -1 if not supported
+	private long allocatedSince(Map<Long,Long> start){
+		if(!allocationSupported) return -1;
+
+		long sum = 0;
+		for(Map.Entry<Long,Long> thread : allocatedBytes().entrySet()){
+			Long before = start.get(thread.getKey());
+			sum += thread.getValue() - (before == null ? 0 : before);
+		}
+		return sum;
+	}
+
+	private static long usedHeap(){
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	// raises the peak of the running stage and of the run, holding the lock
+	private void peakHeap(long used){
+		if(current != null) current.peakHeap = Math.max(current.peakHeap, used);
+		peakHeapOfRun = Math.max(peakHeapOfRun, used);
+	}
+
+	private static String millis(long nanos){
+		return String.format(java.util.Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	private static void appendCounters(StringBuilder json, Map<String,Long> counters){
+		json.append("{");
+		boolean first = true;
+		for(Map.Entry<String,Long> counter : counters.entrySet()){
+			if(!first) json.append(", ");
+			json.append(quote(counter.getKey())).append(": ").append(counter.getValue());
+			first = false;
+		}
+		json.append("}");
+	}
+
+	private static String quote(String s){
+		StringBuilder quoted = new StringBuilder("\"");
+		for(int i=0; i<s.length(); i++){
+			char c = s.charAt(i);
+			if(c == '"' || c == '\\') quoted.append('\\').append(c);
+			else if(c < 0x20) quoted.append(String.format("\\u%04x", (int)c));
+			else quoted.append(c);
+		}
+		return quoted.append('"').toString();
+	}
+}
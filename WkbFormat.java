@@ -0,0 +1,205 @@
+package osm2wkt;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+
+// well-known binary input and output for the streets of a road map. the map
+// is written as one little endian MULTILINESTRING. the reader accepts a
+// sequence of LINESTRING and MULTILINESTRING geometries in either byte order.
+// coordinates are moved with bulk DoubleBuffer transfers
+public class WkbFormat {
+
+	public final static String FILE_EXT = "wkb";
+
+	private final static int WKB_LINESTRING 		= 2;
+	private final static int WKB_MULTILINESTRING 	= 5;
+	private final static byte WKB_LITTLE_ENDIAN 	= 1;
+
+	private final static int BUFFER_SIZE = 1 << 20;
+
+	//****************************************************************************
+	// writing
+
+	public static void write(RoadMap map, WritableByteChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		double[] coords = new double[64];
+
+		buffer.put(WKB_LITTLE_ENDIAN);
+		buffer.putInt(WKB_MULTILINESTRING);
+		buffer.putInt(map.streetCount());
+
+		for(int s=0; s<map.streetCount(); s++){
+			int length = map.streetLength(s);
+			if(buffer.remaining() < 9) drain(buffer, channel);
+			buffer.put(WKB_LITTLE_ENDIAN);
+			buffer.putInt(WKB_LINESTRING);
+			buffer.putInt(length);
+
+			if(coords.length < 2*length) coords = new double[2*length];
+			for(int i=0; i<length; i++){
+				int mark = map.streetLandmark(s, i);
+				coords[2*i] = map.x[mark];
+				coords[2*i+1] = map.y[mark];
+			}
+
+			for(int i=0; i<2*length; ){
+				if(buffer.remaining() < 8) drain(buffer, channel);
+				int n = Math.min(2*length - i, buffer.remaining() / 8);
+				buffer.asDoubleBuffer().put(coords, i, n);
+				buffer.position(buffer.position() + 8*n);
+				i += n;
+			}
+		}
+
+		drain(buffer, channel);
+	}
+
+	public static void write(RoadMap map, File file, boolean append) throws IOException {
+		FileChannel channel = append
+			? FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+			: FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try{
+			write(map, channel);
+		}finally{
+			channel.close();
+		}
+	}
+
+	private static void drain(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+
+	//****************************************************************************
+	// reading
+
+	// reads all linestrings of the file. points closer than epsilon in x and y
+	// become the same landmark, the same way readWkt merges landmarks
+	public static RoadMap read(File file, double epsilon) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try{
+			if(channel.size() > Integer.MAX_VALUE) throw new IOException("wkb file too large");
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			Reader reader = new Reader(epsilon);
+			while(buffer.hasRemaining()) reader.geometry(buffer);
+			return reader.toRoadMap();
+		}finally{
+			channel.close();
+		}
+	}
+
+	private static class Reader {
+
+		private final double epsilon;
+
+		private double[] x = new double[1024];
+		private double[] y = new double[1024];
+		private int[] nextInCell = new int[1024];
+		private int landmarks = 0;
+
+		private int[] offsets = new int[1024];
+		private int[] refs = new int[4096];
+		private int streets = 0;
+		private int points = 0;
+
+		// landmarks by grid cell of 1x1, linked through nextInCell
+		private final HashMap<Long,Integer> cells = new HashMap<Long,Integer>();
+		private double[] coords = new double[64];
+
+		Reader(double epsilon){
+			this.epsilon = epsilon;
+		}
+
+		void geometry(ByteBuffer buffer) throws IOException {
+			if(buffer.remaining() < 5) throw new IOException("truncated wkb geometry");
+			buffer.order(buffer.get() == WKB_LITTLE_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+			int type = buffer.getInt();
+
+			if(type == WKB_LINESTRING){
+				lineString(buffer);
+			}else if(type == WKB_MULTILINESTRING){
+				int count = buffer.getInt();
+				for(int i=0; i<count; i++){
+					buffer.order(buffer.get() == WKB_LITTLE_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+					if(buffer.getInt() != WKB_LINESTRING)
+						throw new IOException("multilinestring contains other geometries than linestrings");
+					lineString(buffer);
+				}
+			}else{
+				throw new IOException("unsupported wkb geometry type " + type);
+			}
+		}
+
+		private void lineString(ByteBuffer buffer) throws IOException {
+			int length = buffer.getInt();
+			if(length < 0 || buffer.remaining() < 16L*length) throw new IOException("truncated wkb linestring");
+
+			if(coords.length < 2*length) coords = new double[2*length];
+			DoubleBuffer doubles = buffer.slice().order(buffer.order()).asDoubleBuffer();
+			doubles.get(coords, 0, 2*length);
+			buffer.position(buffer.position() + 16*length);
+
+			if(streets + 2 > offsets.length) offsets = Arrays.copyOf(offsets, 2*offsets.length);
+			if(points + length > refs.length) refs = Arrays.copyOf(refs, Math.max(2*refs.length, points + length));
+
+			for(int i=0; i<length; i++) refs[points++] = landmark(coords[2*i], coords[2*i+1]);
+			offsets[++streets] = points;
+		}
+
+		private static long cell(double x, double y){
+			return (((long)Math.floor(x)) << 32) ^ (((long)Math.floor(y)) & 0xffffffffL);
+		}
+
+		// existing landmark within epsilon or a new one
+		private int landmark(double px, double py){
+			for(int cx=0; cx<2; cx++){
+				for(int cy=0; cy<2; cy++){
+					double qx = cx == 0 ? px - epsilon : px + epsilon;
+					double qy = cy == 0 ? py - epsilon : py + epsilon;
+					// the neighbour cells only matter if the epsilon box reaches into them
+					if(cx == 1 && Math.floor(qx) == Math.floor(px - epsilon)) continue;
+					if(cy == 1 && Math.floor(qy) == Math.floor(py - epsilon)) continue;
+
+					Integer head = cells.get(cell(qx, qy));
+					for(int m = head == null ? -1 : head; m >= 0; m = nextInCell[m]){
+						if(Math.abs(x[m] - px) < epsilon && Math.abs(y[m] - py) < epsilon) return m;
+					}
+				}
+			}
+
+			if(landmarks == x.length){
+				x = Arrays.copyOf(x, 2*landmarks);
+				y = Arrays.copyOf(y, 2*landmarks);
+				nextInCell = Arrays.copyOf(nextInCell, 2*landmarks);
+			}
+			x[landmarks] = px;
+			y[landmarks] = py;
+			Integer head = cells.put(cell(px, py), landmarks);
+			nextInCell[landmarks] = head == null ? -1 : head;
+			return landmarks++;
+		}
+
+		RoadMap toRoadMap(){
+			long[] ids = new long[landmarks];
+			for(int i=0; i<landmarks; i++) ids[i] = i;
+			long[] streetIds = new long[streets];
+			for(int i=0; i<streets; i++) streetIds[i] = i;
+
+			return new RoadMap(ids,
+					Arrays.copyOf(x, landmarks), Arrays.copyOf(y, landmarks),
+					streetIds, Arrays.copyOf(offsets, streets + 1),
+					Arrays.copyOf(refs, points), new byte[landmarks]);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package osm2wkt;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// writes the streets of a road map as wkt LINESTRINGs. the streets are split
+// into chunks that are encoded in parallel into separate direct buffers. the
+// calling thread drains the buffers in street order with gathering writes, so
+// the output is the same as if it was written by a single thread
+public class WktWriter {
+
+	// number of street points that make up one chunk
+	private final static int CHUNK_POINTS = 1 << 15;
+
+	// maximum number of buffers written with one gathering write
+	private final static int MAX_GATHER = 16;
+
+	// room needed for one coordinate pair plus separators
+	private final static int MAX_POINT_LENGTH = 2 * AsciiFormat.MAX_NUMBER_LENGTH + 8;
+
+	private final static byte[] WKT_BEGIN 	= AsciiFormat.bytes("LINESTRING (");
+	private final static byte[] WKT_END 	= AsciiFormat.bytes(")\n");
+	private final static byte[] WKT_MARKSEP = AsciiFormat.bytes(", ");
+	private final static byte[] WKT_APPEND 	= AsciiFormat.bytes("\n\n\n");
+
+	private final int decimals;
+	private final int threads;
+
+	public WktWriter(int decimals){
+		this(decimals, Runtime.getRuntime().availableProcessors());
+	}
+
+	public WktWriter(int decimals, int threads){
+		this.decimals = decimals;
+		this.threads = Math.max(1, threads);
+	}
+
+	public void write(RoadMap map, File file, boolean append) throws IOException {
+		FileChannel channel = append
+			? FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+			: FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+		try{
+			write(map, channel, append);
+		}finally{
+			channel.close();
+		}
+	}
+
+	public void write(final RoadMap map, WritableByteChannel channel, boolean append) throws IOException {
+		// split the streets into chunks of about CHUNK_POINTS points
+		ArrayList<int[]> chunks = new ArrayList<int[]>();
+		int first = 0;
+		int points = 0;
+		for(int s=0; s<map.streetCount(); s++){
+			points += map.streetLength(s);
+			if(points >= CHUNK_POINTS || s+1 == map.streetCount()){
+				chunks.add(new int[]{ first, s+1 });
+				first = s+1;
+				points = 0;
+			}
+		}
+
+		// at most 2*threads chunks are in flight, each with its own buffer
+		int window = 2 * threads;
+		ArrayDeque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+		ArrayDeque<Future<ByteBuffer>> pending = new ArrayDeque<Future<ByteBuffer>>();
+		ByteBuffer[] gather = new ByteBuffer[MAX_GATHER + 1];
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, chunks.size())));
+		try{
+			int next = 0;
+			boolean separator = append;
+
+			while(next < chunks.size() || !pending.isEmpty()){
+
+				// keep the workers busy
+				while(next < chunks.size() && pending.size() < window){
+					final int[] chunk = chunks.get(next++);
+					int capacity = capacity(map, chunk[0], chunk[1]);
+					ByteBuffer buffer = free.poll();
+					if(buffer == null || buffer.capacity() < capacity)
+						buffer = ByteBuffer.allocateDirect(Math.max(capacity, CHUNK_POINTS * MAX_POINT_LENGTH));
+
+					final ByteBuffer target = buffer;
+					pending.add(pool.submit(() -> {
+						encodeStreets(map, chunk[0], chunk[1], target);
+						target.flip();
+						return target;
+					}));
+				}
+
+				// gather the finished chunks in order, waiting for the oldest one
+				int count = 0;
+				if(separator){
+					gather[count++] = ByteBuffer.wrap(WKT_APPEND);
+					separator = false;
+				}
+				gather[count++] = result(pending.poll());
+				while(count < gather.length && !pending.isEmpty() && pending.peek().isDone()){
+					gather[count++] = result(pending.poll());
+				}
+
+				if(channel instanceof GatheringByteChannel){
+					while(gather[count-1].hasRemaining())
+						((GatheringByteChannel)channel).write(gather, 0, count);
+				}else{
+					for(int i=0; i<count; i++){
+						while(gather[i].hasRemaining()) channel.write(gather[i]);
+					}
+				}
+
+				for(int i=0; i<count; i++){
+					if(gather[i].isDirect()) free.add(gather[i].clear());
+					gather[i] = null;
+				}
+			}
+
+			if(separator){
+				ByteBuffer buffer = ByteBuffer.wrap(WKT_APPEND);
+				while(buffer.hasRemaining()) channel.write(buffer);
+			}
+		}finally{
+			pool.shutdownNow();
+		}
+	}
+
+	private static ByteBuffer result(Future<ByteBuffer> future) throws IOException {
+		try{
+			return future.get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("writing wkt interrupted", e);
+		}catch(ExecutionException e){
+			throw new IOException("encoding wkt failed", e.getCause());
+		}
+	}
+
+	// upper bound of the bytes needed for the streets [from,to)
+	private static int capacity(RoadMap map, int from, int to){
+		int points = map.streetOffsets[to] - map.streetOffsets[from];
+		return (to - from) * (WKT_BEGIN.length + WKT_END.length) + points * MAX_POINT_LENGTH;
+	}
+
+	// encode the streets [from,to) into the buffer that is large enough
+	private void encodeStreets(RoadMap map, int from, int to, ByteBuffer buffer){
+		for(int s=from; s<to; s++){
+			buffer.put(WKT_BEGIN);
+
+			int first = map.streetOffsets[s];
+			int last = map.streetOffsets[s+1];
+			for(int i=first; i<last; i++){
+				int mark = map.streetLandmarks[i];
+				AsciiFormat.putDouble(buffer, map.x[mark], decimals);
+				buffer.put((byte)' ');
+				AsciiFormat.putDouble(buffer, map.y[mark], decimals);
+				if(i+1 < last) buffer.put(WKT_MARKSEP);
+			}
+
+			buffer.put(WKT_END);
+		}
+	}
+}
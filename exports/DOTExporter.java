@@ -7,6 +7,9 @@ package osm2wkt.exports;
 
 import java.io.*;
 import java.lang.Class;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 import org.jgrapht.*;
 import org.jgrapht.ext.EdgeNameProvider;
@@ -23,15 +26,39 @@ import org.jgrapht.graph.WeightedPseudograph;
  * href="http://en.wikipedia.org/wiki/DOT_language">
  * http://en.wikipedia.org/wiki/DOT_language</a>.</p>
  *
+ * <p>If a {@link VertexPositionProvider} is given, every node gets a pinned
+ * position <code>pos="x,y!"</code>, so Graphviz can render the graph without
+ * computing a layout (<code>neato -n</code>).</p>
+ *
  * @author blah 
  */
 public class DOTExporter<V, E>
 {
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final Pattern ALPHA_DIG = Pattern.compile("[a-zA-Z]+([\\w_]*)?");
+    private static final Pattern DOUBLE_QUOTED = Pattern.compile("\".*\"");
+    private static final Pattern DOT_NUMBER =
+        Pattern.compile("[-]?([.][0-9]+|[0-9]+([.][0-9]*)?)");
+    private static final Pattern HTML = Pattern.compile("<.*>");
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final String INDENT = "  ";
+
     //~ Instance fields --------------------------------------------------------
 
     private VertexNameProvider<V> vertexIDProvider;
     private VertexNameProvider<V> vertexLabelProvider;
     private EdgeNameProvider<E> edgeLabelProvider;
+    private VertexPositionProvider<V> vertexPositionProvider;
+
+    // validated IDs of the vertices of the graph being exported
+    private final Map<V, String> vertexIDs = new HashMap<V, String>();
+
+    // graph being written by startDocument, writeNode and writeEdge
+    private PrintWriter out;
+    private String connector;
 
     //~ Constructors -----------------------------------------------------------
 
@@ -58,71 +85,170 @@ public class DOTExporter<V, E>
         VertexNameProvider<V> vertexIDProvider,
         VertexNameProvider<V> vertexLabelProvider,
         EdgeNameProvider<E> edgeLabelProvider)
+    {
+        this(vertexIDProvider, vertexLabelProvider, edgeLabelProvider, null);
+    }
+
+    /**
+     * Constructs a new DOTExporter object with the given ID, label and
+     * position providers.
+     *
+     * @param vertexIDProvider for generating vertex IDs. Must not be null.
+     * @param vertexLabelProvider for generating vertex labels. If null, vertex
+     * labels will not be written to the file.
+     * @param edgeLabelProvider for generating edge labels. If null, edge labels
+     * will not be written to the file.
+     * @param vertexPositionProvider for the vertex coordinates. If null, vertex
+     * positions will not be written to the file.
+     */
+    public DOTExporter(
+        VertexNameProvider<V> vertexIDProvider,
+        VertexNameProvider<V> vertexLabelProvider,
+        EdgeNameProvider<E> edgeLabelProvider,
+        VertexPositionProvider<V> vertexPositionProvider)
     {
         this.vertexIDProvider = vertexIDProvider;
         this.vertexLabelProvider = vertexLabelProvider;
         this.edgeLabelProvider = edgeLabelProvider;
+        this.vertexPositionProvider = vertexPositionProvider;
     }
 
     //~ Methods ----------------------------------------------------------------
 
     /**
-     * Exports a graph into a plain text file in DOT format.
+     * Exports a graph into a plain text file in DOT format. The output is
+     * buffered, the writer is flushed but not closed.
      *
      * @param writer the writer to which the graph to be exported
      * @param g the graph to be exported
      */
     public void export(Writer writer, WeightedPseudograph<V, E> g)
     {
-        PrintWriter out = new PrintWriter(writer);
-        String indent = "  ";
-        String connector;
-		
+        startDocument(writer, g instanceof DirectedGraph);
+
+        for (V v : g.vertexSet()) {
+            writeNode(
+                getVertexID(v),
+                (vertexLabelProvider != null)
+                ? vertexLabelProvider.getVertexName(v) : null,
+                (vertexPositionProvider != null)
+                ? vertexPositionProvider.getX(v) : 0,
+                (vertexPositionProvider != null)
+                ? vertexPositionProvider.getY(v) : 0);
+        }
+
+        for (E e : g.edgeSet()) {
+            writeEdge(
+                getVertexID(g.getEdgeSource(e)),
+                getVertexID(g.getEdgeTarget(e)),
+                (edgeLabelProvider != null)
+                ? edgeLabelProvider.getEdgeName(e) : null,
+                g.getEdgeWeight(e));
+        }
+
+        endDocument();
+        vertexIDs.clear();
+    }
+
+    /**
+     * Starts a graph, which is then written node by node and edge by edge
+     * with {@link #writeNode} and {@link #writeEdge}. The output is buffered
+     * until {@link #endDocument}.
+     *
+     * @param writer the writer to which the graph is written
+     * @param directed whether the edges are directed
+     */
+    public void startDocument(Writer writer, boolean directed)
+    {
+        out =
+            new PrintWriter(
+                (writer instanceof BufferedWriter) ? writer
+                : new BufferedWriter(writer, BUFFER_SIZE));
 
-        if (g instanceof DirectedGraph) {
+        if (directed) {
             out.println("digraph G {");
             connector = " -> ";
         } else {
             out.println("graph G {");
             connector = " -- ";
         }
+    }
 
-        for (V v : g.vertexSet()) {
-            out.print(indent + getVertexID(v));
-
-            if (vertexLabelProvider != null) {
-                out.print(
-                    " [label = \"" + vertexLabelProvider.getVertexName(v)
-                    + "\"]");
-            }
+    /**
+     * Writes a node statement.
+     *
+     * @param id the vertex ID, it must be valid in the DOT language
+     * @param label the vertex label or null to write no label
+     * @param x the x coordinate, only written if a vertex position provider
+     * was given
+     * @param y the y coordinate, only written if a vertex position provider
+     * was given
+     */
+    public void writeNode(String id, String label, double x, double y)
+    {
+        out.print(INDENT);
+        out.print(id);
 
-            out.println(";");
+        if (label != null) {
+            out.print(" [label = \"" + label + "\"]");
         }
 
-        for (E e : g.edgeSet()) {
-            String source = getVertexID(g.getEdgeSource(e));
-            String target = getVertexID(g.getEdgeTarget(e));
+        if (vertexPositionProvider != null) {
+            out.print(" [pos=\"");
+            out.print(x);
+            out.print(',');
+            out.print(y);
+            out.print("!\"]");
+        }
 
-			// change : line commented
-            /*out.print(indent + source + connector + target);*/
-			// end of change
+        out.println(";");
+    }
 
-			// change  : line added
-			//out.print("name of the class of edge : " + e.getClass().getName());
-			out.print(indent + source + connector + target + indent + "[weight=" + g.getEdgeWeight(e) + "]");
-			// end of change
+    /**
+     * Writes an edge statement with the edge weight as <code>weight</code>
+     * attribute.
+     *
+     * @param source the ID of the source vertex
+     * @param target the ID of the target vertex
+     * @param label the edge label or null to write no label
+     * @param weight the edge weight
+     */
+    public void writeEdge(String source, String target, String label, double weight)
+    {
+		// change : line commented
+        /*out.print(indent + source + connector + target);*/
+		// end of change
 
-            if (edgeLabelProvider != null) {
-                out.print(
-                    " [label = \"" + edgeLabelProvider.getEdgeName(e) + "\"]");
-            }
+		// change  : line added
+		out.print(INDENT);
+		out.print(source);
+		out.print(connector);
+		out.print(target);
+		out.print(INDENT);
+		out.print("[weight=");
+		out.print(weight);
+		out.print("]");
+		// end of change
 
-            out.println(";");
+        if (label != null) {
+            out.print(" [label = \"" + label + "\"]");
         }
 
-        out.println("}");
+        out.println(";");
+    }
 
-        out.flush();
+    /**
+     * Closes the graph and flushes the writer, which is not closed.
+     *
+     * @return true if writing to the writer failed, the print writer used
+     * for the output does not throw IOExceptions
+     */
+    public boolean endDocument()
+    {
+        out.println("}");
+        boolean error = out.checkError();
+        out = null;
+        return error;
     }
 
     /**
@@ -140,26 +266,28 @@ public class DOTExporter<V, E>
      * <li>an HTML string (<...>).
      * </ul>
      *
+     * <p>Every vertex is validated once per export, its ID is cached.</p>
+     *
      * @throws RuntimeException if the given <code>vertexIDProvider</code>
      * didn't generate a valid vertex ID.
      */
     private String getVertexID(V v)
     {
-        // TODO jvs 28-Jun-2008:  possible optimizations here are
-        // (a) only validate once per vertex
-        // (b) compile regex patterns
+        String id = vertexIDs.get(v);
+        if (id != null) {
+            return id;
+        }
 
         // use the associated id provider for an ID of the given vertex
         String idCandidate = vertexIDProvider.getVertexName(v);
 
-        // now test that this is a valid ID
-        boolean isAlphaDig = idCandidate.matches("[a-zA-Z]+([\\w_]*)?");
-        boolean isDoubleQuoted = idCandidate.matches("\".*\"");
-        boolean isDotNumber =
-            idCandidate.matches("[-]?([.][0-9]+|[0-9]+([.][0-9]*)?)");
-        boolean isHTML = idCandidate.matches("<.*>");
-
-        if (isAlphaDig || isDotNumber || isDoubleQuoted || isHTML) {
+        // now test that this is a valid ID, numbers are the common case
+        if (DOT_NUMBER.matcher(idCandidate).matches()
+            || ALPHA_DIG.matcher(idCandidate).matches()
+            || DOUBLE_QUOTED.matcher(idCandidate).matches()
+            || HTML.matcher(idCandidate).matches())
+        {
+            vertexIDs.put(v, idCandidate);
             return idCandidate;
         }
 
@@ -26,6 +26,11 @@ import org.jgrapht.ext.VertexNameProvider;
  * #setPrintLabels(Integer)} method. The default behavior is to export no label
  * information.</p>
  *
+ * <p>If a {@link VertexPositionProvider} is given, every node gets a
+ * <code>graphics [x y]</code> section with its position, so viewers can skip
+ * the layout. Edge weights are exported if enabled with {@link
+ * #setPrintEdgeWeights(boolean)}.</p>
+ *
  * @author Blah 
  */
 public class GmlExporter<V, E>
@@ -38,6 +43,7 @@ public class GmlExporter<V, E>
     private static final String delim = " ";
     private static final String tab1 = "\t";
     private static final String tab2 = "\t\t";
+    private static final String tab3 = "\t\t\t";
 
     // TODO jvs 27-Jan-2008:  convert these to enum
 
@@ -64,11 +70,16 @@ public class GmlExporter<V, E>
     //~ Instance fields --------------------------------------------------------
 
     private Integer printLabels = PRINT_NO_LABELS;
+    private boolean printEdgeWeights = false;
 
     private VertexNameProvider<V> vertexIDProvider;
     private VertexNameProvider<V> vertexLabelProvider;
     private EdgeNameProvider<E> edgeIDProvider;
     private EdgeNameProvider<E> edgeLabelProvider;
+    private VertexPositionProvider<V> vertexPositionProvider;
+
+    // graph being written by startDocument, writeNode and writeEdge
+    private PrintWriter out;
 
     //~ Constructors -----------------------------------------------------------
 
@@ -102,11 +113,41 @@ public class GmlExporter<V, E>
         VertexNameProvider<V> vertexLabelProvider,
         EdgeNameProvider<E> edgeIDProvider,
         EdgeNameProvider<E> edgeLabelProvider)
+    {
+        this(
+            vertexIDProvider,
+            vertexLabelProvider,
+            edgeIDProvider,
+            edgeLabelProvider,
+            null);
+    }
+
+    /**
+     * Constructs a new GmlExporter object with the given ID, label and
+     * position providers.
+     *
+     * @param vertexIDProvider for generating vertex IDs. Must not be null.
+     * @param vertexLabelProvider for generating vertex labels. If null, vertex
+     * labels will be generated using the toString() method of the vertex
+     * object.
+     * @param edgeIDProvider for generating vertex IDs. Must not be null.
+     * @param edgeLabelProvider for generating edge labels. If null, edge labels
+     * will be generated using the toString() method of the edge object.
+     * @param vertexPositionProvider for the vertex coordinates. If null, vertex
+     * positions will not be written to the file.
+     */
+    public GmlExporter(
+        VertexNameProvider<V> vertexIDProvider,
+        VertexNameProvider<V> vertexLabelProvider,
+        EdgeNameProvider<E> edgeIDProvider,
+        EdgeNameProvider<E> edgeLabelProvider,
+        VertexPositionProvider<V> vertexPositionProvider)
     {
         this.vertexIDProvider = vertexIDProvider;
         this.vertexLabelProvider = vertexLabelProvider;
         this.edgeIDProvider = edgeIDProvider;
         this.edgeLabelProvider = edgeLabelProvider;
+        this.vertexPositionProvider = vertexPositionProvider;
     }
 
     //~ Methods ----------------------------------------------------------------
@@ -122,61 +163,71 @@ public class GmlExporter<V, E>
         out.println("Version" + delim + version);
     }
 
-    private void exportVertices(
-        PrintWriter out,
-        Graph<V, E> g)
+    private void exportVertices(Graph<V, E> g)
     {
         for (V from : g.vertexSet()) {
-            out.println(tab1 + "node");
-            out.println(tab1 + "[");
-            out.println(
-                tab2 + "id" + delim + vertexIDProvider.getVertexName(from));
+            String label = null;
             if ((printLabels == PRINT_VERTEX_LABELS)
                 || (printLabels == PRINT_EDGE_VERTEX_LABELS))
             {
-                String label =
+                label =
                     (vertexLabelProvider == null) ? from.toString()
                     : vertexLabelProvider.getVertexName(from);
-                out.println(tab2 + "label" + delim + quoted(label));
             }
-            out.println(tab1 + "]");
+            writeNode(
+                vertexIDProvider.getVertexName(from),
+                label,
+                (vertexPositionProvider != null)
+                ? vertexPositionProvider.getX(from) : 0,
+                (vertexPositionProvider != null)
+                ? vertexPositionProvider.getY(from) : 0);
         }
     }
 
-    private void exportEdges(
-        PrintWriter out,
-        Graph<V, E> g)
+    private void exportEdges(Graph<V, E> g)
     {
         for (E edge : g.edgeSet()) {
-            out.println(tab1 + "edge");
-            out.println(tab1 + "[");
-            String id = edgeIDProvider.getEdgeName(edge);
-            out.println(tab2 + "id" + delim + id);
-            String s = vertexIDProvider.getVertexName(g.getEdgeSource(edge));
-            out.println(tab2 + "source" + delim + s);
-            String t = vertexIDProvider.getVertexName(g.getEdgeTarget(edge));
-            out.println(tab2 + "target" + delim + t);
+            String label = null;
             if ((printLabels == PRINT_EDGE_LABELS)
                 || (printLabels == PRINT_EDGE_VERTEX_LABELS))
             {
-                String label =
+                label =
                     (edgeLabelProvider == null) ? edge.toString()
                     : edgeLabelProvider.getEdgeName(edge);
-                out.println(tab2 + "label" + delim + quoted(label));
             }
-            out.println(tab1 + "]");
+            writeEdge(
+                edgeIDProvider.getEdgeName(edge),
+                vertexIDProvider.getVertexName(g.getEdgeSource(edge)),
+                vertexIDProvider.getVertexName(g.getEdgeTarget(edge)),
+                label,
+                g.getEdgeWeight(edge));
         }
     }
 
     private void export(Writer output, Graph<V, E> g, boolean directed)
     {
-        PrintWriter out = new PrintWriter(output);
-
         for (V from : g.vertexSet()) {
             // assign ids in vertex set iteration order
             vertexIDProvider.getVertexName(from);
         }
 
+        startDocument(output, directed);
+        exportVertices(g);
+        exportEdges(g);
+        endDocument();
+    }
+
+    /**
+     * Starts a graph, which is then written node by node and edge by edge
+     * with {@link #writeNode} and {@link #writeEdge}.
+     *
+     * @param output the writer to which the graph is written
+     * @param directed whether the edges are directed
+     */
+    public void startDocument(Writer output, boolean directed)
+    {
+        out = new PrintWriter(output);
+
         exportHeader(out);
         out.println("graph");
         out.println("[");
@@ -186,10 +237,79 @@ public class GmlExporter<V, E>
         } else {
             out.println(tab1 + "directed" + delim + "0");
         }
-        exportVertices(out, g);
-        exportEdges(out, g);
+    }
+
+    /**
+     * Writes a node.
+     *
+     * @param id the vertex ID
+     * @param label the vertex label or null to write no label
+     * @param x the x coordinate, only written if a vertex position provider
+     * was given
+     * @param y the y coordinate, only written if a vertex position provider
+     * was given
+     */
+    public void writeNode(String id, String label, double x, double y)
+    {
+        out.println(tab1 + "node");
+        out.println(tab1 + "[");
+        out.println(tab2 + "id" + delim + id);
+        if (label != null) {
+            out.println(tab2 + "label" + delim + quoted(label));
+        }
+        if (vertexPositionProvider != null) {
+            out.println(tab2 + "graphics");
+            out.println(tab2 + "[");
+            out.println(tab3 + "x" + delim + x);
+            out.println(tab3 + "y" + delim + y);
+            out.println(tab2 + "]");
+        }
+        out.println(tab1 + "]");
+    }
+
+    /**
+     * Writes an edge.
+     *
+     * @param id the edge ID
+     * @param source the ID of the source vertex
+     * @param target the ID of the target vertex
+     * @param label the edge label or null to write no label
+     * @param weight the edge weight, only written if enabled with {@link
+     * #setPrintEdgeWeights(boolean)}
+     */
+    public void writeEdge(
+        String id,
+        String source,
+        String target,
+        String label,
+        double weight)
+    {
+        out.println(tab1 + "edge");
+        out.println(tab1 + "[");
+        out.println(tab2 + "id" + delim + id);
+        out.println(tab2 + "source" + delim + source);
+        out.println(tab2 + "target" + delim + target);
+        if (label != null) {
+            out.println(tab2 + "label" + delim + quoted(label));
+        }
+        if (printEdgeWeights) {
+            out.println(tab2 + "weight" + delim + weight);
+        }
+        out.println(tab1 + "]");
+    }
+
+    /**
+     * Closes the graph and flushes the writer, which is not closed.
+     *
+     * @return true if writing to the writer failed, the print writer used
+     * for the output does not throw IOExceptions
+     */
+    public boolean endDocument()
+    {
         out.println("]");
-        out.flush();
+        boolean error = out.checkError();
+        out = null;
+        return error;
     }
 
     /**
@@ -252,6 +372,27 @@ public class GmlExporter<V, E>
     {
         return printLabels;
     }
+
+    /**
+     * Set whether to export the edge weights as <code>weight</code> attribute
+     * of the edges. The default behavior is to export no weights.
+     *
+     * @param b whether to export the edge weights
+     */
+    public void setPrintEdgeWeights(boolean b)
+    {
+        printEdgeWeights = b;
+    }
+
+    /**
+     * Get whether to export the edge weights.
+     *
+     * @return whether the edge weights are exported
+     */
+    public boolean getPrintEdgeWeights()
+    {
+        return printEdgeWeights;
+    }
 }
 
 // End GmlExporter.java
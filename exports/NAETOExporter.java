@@ -14,6 +14,9 @@ package osm2wkt.exports;
 
 import java.io.*;
 import java.lang.Class;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 import org.jgrapht.*;
 import org.jgrapht.ext.EdgeNameProvider;
@@ -35,12 +38,31 @@ import org.jgrapht.graph.WeightedPseudograph;
 
 public class NAETOExporter<V, E>
 {
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final Pattern ALPHA_DIG = Pattern.compile("[a-zA-Z]+([\\w_]*)?");
+    private static final Pattern DOUBLE_QUOTED = Pattern.compile("\".*\"");
+    private static final Pattern DOT_NUMBER =
+        Pattern.compile("[-]?([.][0-9]+|[0-9]+([.][0-9]*)?)");
+    private static final Pattern HTML = Pattern.compile("<.*>");
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final String INDENT = "  ";
+
     //~ Instance fields --------------------------------------------------------
 
     private VertexNameProvider<V> vertexIDProvider;
     private VertexNameProvider<V> vertexLabelProvider;
     private EdgeNameProvider<E> edgeLabelProvider;
 
+    // validated IDs of the vertices of the graph being exported
+    private final Map<V, String> vertexIDs = new HashMap<V, String>();
+
+    // graph being written by startDocument, writeNode and writeEdge
+    private PrintWriter out;
+    private String connector;
+
     //~ Constructors -----------------------------------------------------------
 
     /**
@@ -75,19 +97,52 @@ public class NAETOExporter<V, E>
     //~ Methods ----------------------------------------------------------------
 
     /**
-     * Exports a graph into a plain text file in NAETO format.
+     * Exports a graph into a plain text file in NAETO format. The output is
+     * buffered, the writer is flushed but not closed.
      *
      * @param writer the writer to which the graph to be exported
      * @param g the graph to be exported
      */
     public void export(Writer writer, WeightedPseudograph<V, E> g)
     {
-        PrintWriter out = new PrintWriter(writer);
-        String indent = "  ";
-        String connector;
-		
+        startDocument(writer, g instanceof DirectedGraph);
+
+        for (V v : g.vertexSet()) {
+            writeNode(
+                getVertexID(v),
+                (vertexLabelProvider != null)
+                ? vertexLabelProvider.getVertexName(v) : null);
+        }
+
+        for (E e : g.edgeSet()) {
+            writeEdge(
+                getVertexID(g.getEdgeSource(e)),
+                getVertexID(g.getEdgeTarget(e)),
+                (edgeLabelProvider != null)
+                ? edgeLabelProvider.getEdgeName(e) : null,
+                g.getEdgeWeight(e));
+        }
+
+        endDocument();
+        vertexIDs.clear();
+    }
+
+    /**
+     * Starts a graph, which is then written node by node and edge by edge
+     * with {@link #writeNode} and {@link #writeEdge}. The output is buffered
+     * until {@link #endDocument}.
+     *
+     * @param writer the writer to which the graph is written
+     * @param directed whether the edges are directed
+     */
+    public void startDocument(Writer writer, boolean directed)
+    {
+        out =
+            new PrintWriter(
+                (writer instanceof BufferedWriter) ? writer
+                : new BufferedWriter(writer, BUFFER_SIZE));
 
-        if (g instanceof DirectedGraph) {
+        if (directed) {
 			// this will never get executed 
             out.println("digraph G {");
             connector = " -> ";
@@ -95,43 +150,71 @@ public class NAETOExporter<V, E>
             out.println("graph G {");
             connector = " -- ";
         }
+    }
 
-        for (V v : g.vertexSet()) {
-            out.print(indent + getVertexID(v));
-
-            if (vertexLabelProvider != null) {
-                out.print(
-                    " [label = \"" + vertexLabelProvider.getVertexName(v)
-                    + "\"]");
-            }
+    /**
+     * Writes a node statement.
+     *
+     * @param id the vertex ID, it must be valid in the DOT language
+     * @param label the vertex label or null to write no label
+     */
+    public void writeNode(String id, String label)
+    {
+        out.print(INDENT);
+        out.print(id);
 
-            out.println(";");
+        if (label != null) {
+            out.print(" [label = \"" + label + "\"]");
         }
 
-        for (E e : g.edgeSet()) {
-            String source = getVertexID(g.getEdgeSource(e));
-            String target = getVertexID(g.getEdgeTarget(e));
-
-			// change : line commented
-            /*out.print(indent + source + connector + target);*/
-			// end of change
+        out.println(";");
+    }
 
-			// change  : line added
-			//out.print("name of the class of edge : " + e.getClass().getName());
-			out.print(indent + source + connector + target + indent + "[len=" + g.getEdgeWeight(e) + "]");
-			// end of change
+    /**
+     * Writes an edge statement with the edge weight as <code>len</code>
+     * attribute.
+     *
+     * @param source the ID of the source vertex
+     * @param target the ID of the target vertex
+     * @param label the edge label or null to write no label
+     * @param weight the edge weight
+     */
+    public void writeEdge(String source, String target, String label, double weight)
+    {
+		// change : line commented
+        /*out.print(indent + source + connector + target);*/
+		// end of change
 
-            if (edgeLabelProvider != null) {
-                out.print(
-                    " [label = \"" + edgeLabelProvider.getEdgeName(e) + "\"]");
-            }
+		// change  : line added
+		out.print(INDENT);
+		out.print(source);
+		out.print(connector);
+		out.print(target);
+		out.print(INDENT);
+		out.print("[len=");
+		out.print(weight);
+		out.print("]");
+		// end of change
 
-            out.println(";");
+        if (label != null) {
+            out.print(" [label = \"" + label + "\"]");
         }
 
-        out.println("}");
+        out.println(";");
+    }
 
-        out.flush();
+    /**
+     * Closes the graph and flushes the writer, which is not closed.
+     *
+     * @return true if writing to the writer failed, the print writer used
+     * for the output does not throw IOExceptions
+     */
+    public boolean endDocument()
+    {
+        out.println("}");
+        boolean error = out.checkError();
+        out = null;
+        return error;
     }
 
     /**
@@ -149,26 +232,28 @@ public class NAETOExporter<V, E>
      * <li>an HTML string (<...>).
      * </ul>
      *
+     * <p>Every vertex is validated once per export, its ID is cached.</p>
+     *
      * @throws RuntimeException if the given <code>vertexIDProvider</code>
      * didn't generate a valid vertex ID.
      */
     private String getVertexID(V v)
     {
-        // TODO jvs 28-Jun-2008:  possible optimizations here are
-        // (a) only validate once per vertex
-        // (b) compile regex patterns
+        String id = vertexIDs.get(v);
+        if (id != null) {
+            return id;
+        }
 
         // use the associated id provider for an ID of the given vertex
         String idCandidate = vertexIDProvider.getVertexName(v);
 
-        // now test that this is a valid ID
-        boolean isAlphaDig = idCandidate.matches("[a-zA-Z]+([\\w_]*)?");
-        boolean isDoubleQuoted = idCandidate.matches("\".*\"");
-        boolean isDotNumber =
-            idCandidate.matches("[-]?([.][0-9]+|[0-9]+([.][0-9]*)?)");
-        boolean isHTML = idCandidate.matches("<.*>");
-
-        if (isAlphaDig || isDotNumber || isDoubleQuoted || isHTML) {
+        // now test that this is a valid ID, numbers are the common case
+        if (DOT_NUMBER.matcher(idCandidate).matches()
+            || ALPHA_DIG.matcher(idCandidate).matches()
+            || DOUBLE_QUOTED.matcher(idCandidate).matches()
+            || HTML.matcher(idCandidate).matches())
+        {
+            vertexIDs.put(v, idCandidate);
             return idCandidate;
         }
 
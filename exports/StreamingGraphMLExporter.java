@@ -0,0 +1,389 @@
+package osm2wkt.exports;
+
+/* ------------------
+ * StreamingGraphMLExporter.java
+ * ------------------
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.jgrapht.*;
+import org.jgrapht.ext.EdgeNameProvider;
+import org.jgrapht.ext.IntegerEdgeNameProvider;
+import org.jgrapht.ext.IntegerNameProvider;
+import org.jgrapht.ext.VertexNameProvider;
+
+import osm2wkt.AsciiFormat;
+
+
+/**
+ * Exports a graph into a GraphML file by writing the XML directly into a
+ * buffered byte channel, without going through a SAX transformer.
+ *
+ * <p>The output is laid out like the one of {@link GraphMLExporter}. In
+ * addition, vertex positions are written as <code>x</code> and <code>y</code>
+ * data if a {@link VertexPositionProvider} is given. Edge weights are always
+ * written with the <code>d1</code> key. Attribute values and data content are
+ * escaped, non-ASCII characters are encoded as UTF-8.</p>
+ *
+ * <p>Besides exporting a whole graph, the document can be written element by
+ * element with {@link #startDocument}, {@link #writeNode}, {@link #writeEdge}
+ * and {@link #endDocument}.</p>
+ *
+ * @author blah2
+ */
+public class StreamingGraphMLExporter<V, E>
+{
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final String INDENT = "    ";
+
+    private static final String VERTEX_LABEL_KEY = "vertex_label";
+    private static final String EDGE_LABEL_KEY = "edge_label";
+    private static final String X_KEY = "x";
+    private static final String Y_KEY = "y";
+    private static final String WEIGHT_KEY = "d1";
+
+    //~ Instance fields --------------------------------------------------------
+
+    private VertexNameProvider<V> vertexIDProvider;
+    private VertexNameProvider<V> vertexLabelProvider;
+    private EdgeNameProvider<E> edgeIDProvider;
+    private EdgeNameProvider<E> edgeLabelProvider;
+    private VertexPositionProvider<V> vertexPositionProvider;
+
+    private int decimals = -1;
+
+    private WritableByteChannel channel;
+    private ByteBuffer buffer;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Constructs a new StreamingGraphMLExporter object with integer name
+     * providers for the vertex and edge IDs, null providers for the vertex and
+     * edge labels and without vertex positions.
+     */
+    public StreamingGraphMLExporter()
+    {
+        this(
+            new IntegerNameProvider<V>(),
+            null,
+            new IntegerEdgeNameProvider<E>(),
+            null,
+            null);
+    }
+
+    /**
+     * Constructs a new StreamingGraphMLExporter object with the given ID,
+     * label and position providers.
+     *
+     * @param vertexIDProvider for generating vertex IDs. Must not be null.
+     * @param vertexLabelProvider for generating vertex labels. If null, vertex
+     * labels will not be written to the file.
+     * @param edgeIDProvider for generating edge IDs. Must not be null.
+     * @param edgeLabelProvider for generating edge labels. If null, edge labels
+     * will not be written to the file.
+     * @param vertexPositionProvider for the vertex coordinates. If null, vertex
+     * positions will not be written to the file.
+     */
+    public StreamingGraphMLExporter(
+        VertexNameProvider<V> vertexIDProvider,
+        VertexNameProvider<V> vertexLabelProvider,
+        EdgeNameProvider<E> edgeIDProvider,
+        EdgeNameProvider<E> edgeLabelProvider,
+        VertexPositionProvider<V> vertexPositionProvider)
+    {
+        this.vertexIDProvider = vertexIDProvider;
+        this.vertexLabelProvider = vertexLabelProvider;
+        this.edgeIDProvider = edgeIDProvider;
+        this.edgeLabelProvider = edgeLabelProvider;
+        this.vertexPositionProvider = vertexPositionProvider;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Sets the number of decimals of the written coordinates and weights.
+     * Values are rounded half up and trailing zeros are omitted. A negative
+     * number, the default, writes the exact value as given by
+     * <code>Double.toString</code>.
+     *
+     * @param decimals the number of decimals
+     */
+    public void setDecimals(int decimals)
+    {
+        this.decimals = decimals;
+    }
+
+    /**
+     * Exports a graph into a GraphML file.
+     *
+     * @param channel the channel to which the graph is written. It is not
+     * closed.
+     * @param g the graph to be exported
+     */
+    public void export(WritableByteChannel channel, Graph<V, E> g)
+        throws IOException
+    {
+        startDocument(channel, g instanceof DirectedGraph);
+
+        for (V v : g.vertexSet()) {
+            writeNode(
+                vertexIDProvider.getVertexName(v),
+                (vertexLabelProvider != null)
+                ? vertexLabelProvider.getVertexName(v) : null,
+                (vertexPositionProvider != null)
+                ? vertexPositionProvider.getX(v) : 0,
+                (vertexPositionProvider != null)
+                ? vertexPositionProvider.getY(v) : 0);
+        }
+
+        for (E e : g.edgeSet()) {
+            writeEdge(
+                edgeIDProvider.getEdgeName(e),
+                vertexIDProvider.getVertexName(g.getEdgeSource(e)),
+                vertexIDProvider.getVertexName(g.getEdgeTarget(e)),
+                (edgeLabelProvider != null)
+                ? edgeLabelProvider.getEdgeName(e) : null,
+                g.getEdgeWeight(e));
+        }
+
+        endDocument();
+    }
+
+    /**
+     * Starts a document with the key definitions and opens the graph element.
+     * Which keys are defined depends on the providers given to the
+     * constructor.
+     *
+     * @param channel the channel to which the document is written
+     * @param directed whether the edges are directed
+     */
+    public void startDocument(WritableByteChannel channel, boolean directed)
+        throws IOException
+    {
+        this.channel = channel;
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        buffer.clear();
+
+        put(
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\""
+            + " xsi:schemaLocation=\"http://graphml.graphdrawing.org/xmlns"
+            + " http://graphml.graphdrawing.org/xmlns/1.0/graphml.xsd\""
+            + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">\n");
+
+        if (vertexLabelProvider != null) {
+            putKey(VERTEX_LABEL_KEY, "node", "Vertex Label", "string");
+        }
+        if (edgeLabelProvider != null) {
+            putKey(EDGE_LABEL_KEY, "edge", "Edge Label", "string");
+        }
+        if (vertexPositionProvider != null) {
+            putKey(X_KEY, "node", "x", "double");
+            putKey(Y_KEY, "node", "y", "double");
+        }
+        putKey(WEIGHT_KEY, "edge", "weight", "double");
+
+        put(INDENT);
+        put("<graph edgedefault=\"");
+        put(directed ? "directed" : "undirected");
+        put("\">\n");
+    }
+
+    /**
+     * Writes a node element.
+     *
+     * @param id the vertex ID
+     * @param label the vertex label, only written if a vertex label provider
+     * was given
+     * @param x the x coordinate, only written if a vertex position provider
+     * was given
+     * @param y the y coordinate, only written if a vertex position provider
+     * was given
+     */
+    public void writeNode(String id, String label, double x, double y)
+        throws IOException
+    {
+        boolean labeled = (vertexLabelProvider != null);
+        boolean positioned = (vertexPositionProvider != null);
+
+        put(INDENT + INDENT + "<node id=\"");
+        putEscaped(id);
+        if (!labeled && !positioned) {
+            put("\"/>\n");
+            return;
+        }
+        put("\">\n");
+
+        if (labeled) {
+            putDataStart(VERTEX_LABEL_KEY);
+            putEscaped(label);
+            put("</data>\n");
+        }
+        if (positioned) {
+            putDataStart(X_KEY);
+            putNumber(x);
+            put("</data>\n");
+            putDataStart(Y_KEY);
+            putNumber(y);
+            put("</data>\n");
+        }
+
+        put(INDENT + INDENT + "</node>\n");
+    }
+
+    /**
+     * Writes an edge element with its weight.
+     *
+     * @param id the edge ID
+     * @param source the ID of the source vertex
+     * @param target the ID of the target vertex
+     * @param label the edge label, only written if an edge label provider was
+     * given
+     * @param weight the edge weight
+     */
+    public void writeEdge(
+        String id,
+        String source,
+        String target,
+        String label,
+        double weight)
+        throws IOException
+    {
+        put(INDENT + INDENT + "<edge id=\"");
+        putEscaped(id);
+        put("\" source=\"");
+        putEscaped(source);
+        put("\" target=\"");
+        putEscaped(target);
+        put("\">\n");
+
+        if (edgeLabelProvider != null) {
+            putDataStart(EDGE_LABEL_KEY);
+            putEscaped(label);
+            put("</data>\n");
+        }
+
+        putDataStart(WEIGHT_KEY);
+        putNumber(weight);
+        put("</data>\n");
+
+        put(INDENT + INDENT + "</edge>\n");
+    }
+
+    /**
+     * Closes the graph and document elements and writes out the buffer.
+     */
+    public void endDocument()
+        throws IOException
+    {
+        put(INDENT + "</graph>\n</graphml>\n");
+        drain();
+        channel = null;
+    }
+
+    private void putKey(String id, String domain, String name, String type)
+        throws IOException
+    {
+        put(INDENT + "<key id=\"");
+        put(id);
+        put("\" for=\"");
+        put(domain);
+        put("\" attr.name=\"");
+        put(name);
+        put("\" attr.type=\"");
+        put(type);
+        put("\"/>\n");
+    }
+
+    private void putDataStart(String key)
+        throws IOException
+    {
+        put(INDENT + INDENT + INDENT + "<data key=\"");
+        put(key);
+        put("\">");
+    }
+
+    private void putNumber(double value)
+        throws IOException
+    {
+        ensure(AsciiFormat.MAX_NUMBER_LENGTH);
+        AsciiFormat.putDouble(buffer, value, decimals);
+    }
+
+    // markup without characters that need escaping
+    private void put(String s)
+        throws IOException
+    {
+        for (int i = 0; i < s.length(); i++) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            buffer.put((byte) s.charAt(i));
+        }
+    }
+
+    private void putEscaped(String s)
+        throws IOException
+    {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            ensure(6);
+            switch (c) {
+            case '&':
+                AsciiFormat.putAscii(buffer, "&amp;");
+                break;
+            case '<':
+                AsciiFormat.putAscii(buffer, "&lt;");
+                break;
+            case '>':
+                AsciiFormat.putAscii(buffer, "&gt;");
+                break;
+            case '"':
+                AsciiFormat.putAscii(buffer, "&quot;");
+                break;
+            default:
+                if (c < 0x80) {
+                    buffer.put((byte) c);
+                } else {
+                    // encode the whole code point, surrogate pairs included
+                    int end =
+                        (Character.isHighSurrogate(c) && (i + 1 < s.length()))
+                        ? (i + 2) : (i + 1);
+                    buffer.put(
+                        s.substring(i, end).getBytes(StandardCharsets.UTF_8));
+                    i = end - 1;
+                }
+            }
+        }
+    }
+
+    private void ensure(int length)
+        throws IOException
+    {
+        if (buffer.remaining() < length) {
+            drain();
+        }
+    }
+
+    private void drain()
+        throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
+
+// End StreamingGraphMLExporter.java
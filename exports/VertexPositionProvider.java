@@ -0,0 +1,37 @@
+package osm2wkt.exports;
+
+/* ------------------
+ * VertexPositionProvider.java
+ * ------------------
+ */
+
+/**
+ * Provides the plane coordinates of the vertices for exporters that can
+ * write vertex positions.
+ *
+ * @author blah
+ */
+public interface VertexPositionProvider<V>
+{
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Returns the x coordinate of the given vertex.
+     *
+     * @param vertex the vertex to be positioned
+     *
+     * @return the x coordinate
+     */
+    public double getX(V vertex);
+
+    /**
+     * Returns the y coordinate of the given vertex.
+     *
+     * @param vertex the vertex to be positioned
+     *
+     * @return the y coordinate
+     */
+    public double getY(V vertex);
+}
+
+// End VertexPositionProvider.java